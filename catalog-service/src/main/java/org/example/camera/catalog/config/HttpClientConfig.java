@@ -0,0 +1,22 @@
+package org.example.camera.catalog.config;
+
+import org.example.camera.common.http.HttpClientSettings;
+import org.example.camera.common.http.InterServiceHttpClient;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class HttpClientConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "app.http")
+    public HttpClientSettings httpClientSettings() {
+        return new HttpClientSettings();
+    }
+
+    @Bean
+    public InterServiceHttpClient interServiceHttpClient(HttpClientSettings settings) {
+        return new InterServiceHttpClient(settings);
+    }
+}
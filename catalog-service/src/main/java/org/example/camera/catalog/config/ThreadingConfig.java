@@ -0,0 +1,17 @@
+package org.example.camera.catalog.config;
+
+import org.example.camera.common.concurrent.WorkerThreads;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+@Configuration
+public class ThreadingConfig {
+
+    // то же условие, что у Spring Boot для Tomcat: spring.threads.virtual.enabled и Java 21+
+    @Bean
+    public WorkerThreads workerThreads(Environment env) {
+        return new WorkerThreads(Threading.VIRTUAL.isActive(env));
+    }
+}
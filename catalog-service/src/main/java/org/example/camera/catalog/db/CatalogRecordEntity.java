@@ -1,12 +1,22 @@
 package org.example.camera.catalog.db;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import org.example.camera.common.time.XsDateTime;
+import org.springframework.data.domain.Persistable;
 
 import java.time.Instant;
 
 @Entity
-@Table(name = "catalog_record")
-public class CatalogRecordEntity {
+@Table(name = "catalog_record", indexes = {
+        // окна по времени съёмки — range scan, порядок выдачи тоже из индекса
+        @Index(name = "idx_catalog_record_taken_at", columnList = "takenAtEpochMillis, record_id"),
+        // частые условия XPath-поиска (CatalogXpathPlanner): сессия, статус, скорость
+        @Index(name = "idx_catalog_record_session", columnList = "sessionId"),
+        @Index(name = "idx_catalog_record_status", columnList = "status"),
+        @Index(name = "idx_catalog_record_speed", columnList = "speedKmh")
+})
+public class CatalogRecordEntity implements Persistable<String> {
 
     @Id
     @Column(name = "record_id", nullable = false, length = 200)
@@ -30,6 +40,9 @@ public class CatalogRecordEntity {
     @Column(nullable = false, length = 64)
     private String takenAt; // xs:dateTime строкой из manifest
 
+    @Column
+    private Long takenAtEpochMillis; // то же время числом; null — строка не разбирается
+
     @Column(nullable = false)
     private double latitude;
 
@@ -77,12 +90,29 @@ public class CatalogRecordEntity {
     @Column(nullable = false)
     private Instant updatedAt;
 
+    // id назначаем сами (recordId): без флага saveAll импорта делал бы merge — SELECT на каждую новую запись
+    @Transient
+    private boolean isNew = true;
+
     public CatalogRecordEntity() {}
 
     public CatalogRecordEntity(String recordId) {
         this.recordId = recordId;
     }
 
+    // сущность отдаётся в /records как есть — служебные id/new в JSON не нужны
+    @JsonIgnore
+    @Override
+    public String getId() { return recordId; }
+
+    @JsonIgnore
+    @Override
+    public boolean isNew() { return isNew; }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
+
     public String getRecordId() { return recordId; }
     public void setRecordId(String recordId) { this.recordId = recordId; }
 
@@ -102,7 +132,12 @@ public class CatalogRecordEntity {
     public void setStatus(String status) { this.status = status; }
 
     public String getTakenAt() { return takenAt; }
-    public void setTakenAt(String takenAt) { this.takenAt = takenAt; }
+    public void setTakenAt(String takenAt) {
+        this.takenAt = takenAt;
+        this.takenAtEpochMillis = XsDateTime.toEpochMillisOrNull(takenAt);
+    }
+
+    public Long getTakenAtEpochMillis() { return takenAtEpochMillis; }
 
     public double getLatitude() { return latitude; }
     public void setLatitude(double latitude) { this.latitude = latitude; }
@@ -1,9 +1,21 @@
 package org.example.camera.catalog.db;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
 public interface CatalogRecordRepository extends JpaRepository<CatalogRecordEntity, String> {
     List<CatalogRecordEntity> findBySessionId(String sessionId);
+
+    // keyset-пачка по PK: проход XPath-поиска по всем записям
+    List<CatalogRecordEntity> findByRecordIdGreaterThanOrderByRecordIdAsc(String after, Limit limit);
+
+    // [from, to) по времени съёмки — по индексу idx_catalog_record_taken_at
+    @Query("select r from CatalogRecordEntity r where r.takenAtEpochMillis >= :from and r.takenAtEpochMillis < :to"
+            + " order by r.takenAtEpochMillis, r.recordId")
+    List<CatalogRecordEntity> findTakenBetween(@Param("from") long from, @Param("to") long to, Pageable page);
 }
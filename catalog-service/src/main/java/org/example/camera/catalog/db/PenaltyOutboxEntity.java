@@ -0,0 +1,87 @@
+package org.example.camera.catalog.db;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+/**
+ * Задание outbox: запись каталога ждёт проверки в penalty. Пишется в одной транзакции с записью каталога,
+ * удаляется, когда решение penalty сохранено в записи. Одно задание на recordId — повторный импорт
+ * заменяет payload, а не добавляет второе.
+ */
+@Entity
+@Table(name = "penalty_outbox", indexes = {
+        // выборка готовых к отправке — range scan по времени следующей попытки
+        @Index(name = "idx_penalty_outbox_next_attempt", columnList = "nextAttemptAt, record_id")
+})
+public class PenaltyOutboxEntity implements Persistable<String> {
+
+    @Id
+    @Column(name = "record_id", nullable = false, length = 200)
+    private String recordId;
+
+    @Column(nullable = false, length = 4000)
+    private String payload; // PenaltyCheckRequestDto в JSON
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private long nextAttemptAt; // epoch millis; пока задание в работе — конец аренды
+
+    // метка аренды из claimDue (0 — не в работе); повторный импорт сбрасывает её, и итог
+    // доставки, начатой до импорта, к заданию уже не применяется
+    @Column(nullable = false)
+    private long leaseId;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    // id назначаем сами: без флага saveAll делал бы merge (лишний SELECT на каждое новое задание)
+    @Transient
+    private boolean isNew = true;
+
+    public PenaltyOutboxEntity() {}
+
+    public PenaltyOutboxEntity(String recordId) {
+        this.recordId = recordId;
+    }
+
+    @Override
+    public String getId() { return recordId; }
+
+    @Override
+    public boolean isNew() { return isNew; }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
+
+    public String getRecordId() { return recordId; }
+    public void setRecordId(String recordId) { this.recordId = recordId; }
+
+    public String getPayload() { return payload; }
+    public void setPayload(String payload) { this.payload = payload; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public long getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(long nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+
+    public long getLeaseId() { return leaseId; }
+    public void setLeaseId(long leaseId) { this.leaseId = leaseId; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,30 @@
+package org.example.camera.catalog.db;
+
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface PenaltyOutboxRepository extends JpaRepository<PenaltyOutboxEntity, String> {
+
+    // готовые к отправке, самые давние первыми — по индексу idx_penalty_outbox_next_attempt
+    List<PenaltyOutboxEntity> findByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(long nowMillis, Limit limit);
+
+    // строки блокируются до конца транзакции: импорт и итог доставки одного задания не перемежаются
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<PenaltyOutboxEntity> findByRecordIdIn(Collection<String> recordIds);
+
+    // задания, всё ещё принадлежащие аренде leaseId
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<PenaltyOutboxEntity> findByLeaseIdAndRecordIdIn(long leaseId, Collection<String> recordIds);
+
+    long countByAttemptsGreaterThan(int attempts);
+
+    Optional<PenaltyOutboxEntity> findFirstByOrderByCreatedAtAsc();
+
+    Optional<PenaltyOutboxEntity> findFirstByLastErrorNotNullOrderByUpdatedAtDesc();
+}
@@ -4,27 +4,35 @@ import org.example.camera.catalog.db.CatalogRecordEntity;
 import org.example.camera.catalog.db.CatalogRecordRepository;
 import org.example.camera.common.dto.PenaltyCheckRequestDto;
 import org.example.camera.common.dto.PenaltyCheckResponseDto;
+import org.example.camera.common.http.InterServiceHttpClient;
+import org.example.camera.common.time.XsDateTime;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.DateTimeException;
 import java.time.Instant;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/catalog/records")
 public class CatalogRecordOpsController {
 
+    private static final int MAX_WINDOW_LIMIT = 10_000;
+
     private final CatalogRecordRepository records;
-    private final RestTemplate rest = new RestTemplate();
+    private final RestTemplate rest;
 
     @Value("${app.penalty.base-url}")
     private String penaltyBaseUrl;
 
-    public CatalogRecordOpsController(CatalogRecordRepository records) {
+    public CatalogRecordOpsController(CatalogRecordRepository records, InterServiceHttpClient http) {
         this.records = records;
+        this.rest = http.idempotentRest("penalty");
     }
 
     // Повторный запуск проверки штрафа по уже сохранённой записи (важно для защиты)
@@ -92,6 +100,17 @@ public class CatalogRecordOpsController {
         return resp;
     }
 
+    // Записи за окно времени съёмки [from, to) — xs:dateTime, по возрастанию takenAt
+    @GetMapping
+    public List<CatalogRecordEntity> takenBetween(@RequestParam("from") String from,
+                                                  @RequestParam("to") String to,
+                                                  @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        if (limit < 1 || limit > MAX_WINDOW_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be 1.." + MAX_WINDOW_LIMIT);
+        }
+        return records.findTakenBetween(parseTimeParam("from", from), parseTimeParam("to", to), PageRequest.of(0, limit));
+    }
+
     // Статус/штраф одной строкой (JSON)
     @GetMapping("/{recordId}/status")
     public RecordStatusResponse status(@PathVariable String recordId) {
@@ -108,6 +127,14 @@ public class CatalogRecordOpsController {
         return r;
     }
 
+    private static long parseTimeParam(String name, String value) {
+        try {
+            return XsDateTime.parseMillis(value);
+        } catch (DateTimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, name + " must be xs:dateTime: " + value, e);
+        }
+    }
+
     private static void validateRecordForPenalty(CatalogRecordEntity rec) {
         if (rec.getRecordId() == null || rec.getRecordId().isBlank())
             throw new ResponseStatusException(HttpStatus.CONFLICT, "recordId is empty in DB");
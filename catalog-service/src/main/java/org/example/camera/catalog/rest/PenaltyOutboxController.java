@@ -0,0 +1,24 @@
+package org.example.camera.catalog.rest;
+
+import org.example.camera.catalog.service.PenaltyOutbox;
+import org.example.camera.common.dto.PenaltyOutboxStatsDto;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/catalog")
+public class PenaltyOutboxController {
+
+    private final PenaltyOutbox outbox;
+
+    public PenaltyOutboxController(PenaltyOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    // сколько записей ещё ждёт решения penalty и последняя ошибка отправки
+    @GetMapping("/penalty-outbox")
+    public PenaltyOutboxStatsDto stats() {
+        return outbox.stats();
+    }
+}
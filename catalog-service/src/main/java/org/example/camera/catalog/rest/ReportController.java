@@ -1,136 +1,127 @@
 package org.example.camera.catalog.rest;
 
+import jakarta.servlet.http.HttpServletResponse;
 import org.example.camera.catalog.db.CatalogRecordEntity;
 import org.example.camera.catalog.db.CatalogRecordRepository;
 import org.example.camera.catalog.rules.RuleSetEntity;
 import org.example.camera.catalog.rules.RuleSetRepository;
+import org.example.camera.catalog.service.ReportStylesheet;
+import org.example.camera.common.xml.XmlDocumentWriter;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.InputSource;
-
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
 
 @RestController
 @RequestMapping("/api/catalog")
 public class ReportController {
 
     private static final String ACTIVE_RULES_ID = "active";
-    private static final String XSL_CLASSPATH = "report/report.xsl";
+    // отчёт обычно целиком помещается в буфер — ошибка XSLT до коммита ответа отдаётся как 500
+    private static final int REPORT_BUFFER_BYTES = 64 * 1024;
+    private static final MediaType XML_UTF8 = MediaType.parseMediaType("application/xml; charset=UTF-8");
 
     private final CatalogRecordRepository records;
     private final RuleSetRepository rulesRepo;
+    private final ReportStylesheet stylesheet;
 
-    public ReportController(CatalogRecordRepository records, RuleSetRepository rulesRepo) {
+    public ReportController(CatalogRecordRepository records, RuleSetRepository rulesRepo, ReportStylesheet stylesheet) {
         this.records = records;
         this.rulesRepo = rulesRepo;
+        this.stylesheet = stylesheet;
     }
 
+    // HTML пишется преобразованием сразу в ответ; report.xsl скомпилирован заранее (ReportStylesheet).
+    // Ошибка XSLT, пока ответ не закоммичен, — сброс буфера и 500; после коммита (отчёт больше буфера) —
+    // IOException: Tomcat рвёт соединение без завершающего chunk, клиент видит обрыв, а не полный 200
     @GetMapping(value = "/reports/{recordId}.html", produces = "text/html; charset=UTF-8")
-    public String report(@PathVariable String recordId) {
+    public void report(@PathVariable String recordId, HttpServletResponse response) throws IOException {
         CatalogRecordEntity rec = records.findById(recordId)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "CatalogRecord not found: " + recordId));
 
         RuleSetEntity rules = rulesRepo.findById(ACTIVE_RULES_ID)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "rules.xml is not uploaded to catalog-service"));
 
-        Document caseDoc = buildCaseDom(rec, rules.getXml());
+        String caseXml = buildCaseXml(rec, rules.getXml());
 
-        try (var xsl = getClass().getClassLoader().getResourceAsStream(XSL_CLASSPATH)) {
-            if (xsl == null) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "XSL not found: " + XSL_CLASSPATH);
+        response.setContentType("text/html; charset=UTF-8");
+        response.setBufferSize(REPORT_BUFFER_BYTES);
+        try {
+            stylesheet.transform(new StreamSource(new StringReader(caseXml)), new StreamResult(response.getOutputStream()));
+        } catch (TransformerException e) {
+            if (response.isCommitted()) {
+                throw new IOException("XSLT error after response was committed: " + e.getMessage(), e);
             }
-
-            StringWriter sw = new StringWriter();
-            TransformerFactory.newInstance()
-                    .newTransformer(new StreamSource(xsl))
-                    .transform(new DOMSource(caseDoc), new StreamResult(sw));
-            return sw.toString();
-        } catch (ResponseStatusException e) {
-            throw e;
-        } catch (Exception e) {
+            response.reset();
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "XSLT error: " + e.getMessage(), e);
         }
     }
 
+    // case.xml пишется сразу в ответ, без DOM
     @GetMapping(value = "/cases/{recordId}.xml", produces = "application/xml; charset=UTF-8")
-    public String caseXml(@PathVariable String recordId) {
+    public ResponseEntity<StreamingResponseBody> caseXml(@PathVariable String recordId) {
         CatalogRecordEntity rec = records.findById(recordId)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "CatalogRecord not found: " + recordId));
 
         RuleSetEntity rules = rulesRepo.findById(ACTIVE_RULES_ID)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "rules.xml is not uploaded to catalog-service"));
 
-        Document caseDoc = buildCaseDom(rec, rules.getXml());
-
-        try {
-            StringWriter sw = new StringWriter();
-            TransformerFactory.newInstance().newTransformer()
-                    .transform(new DOMSource(caseDoc), new StreamResult(sw));
-            return sw.toString();
-        } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "case.xml build error: " + e.getMessage(), e);
-        }
+        String rulesXml = rules.getXml();
+        StreamingResponseBody body = out -> {
+            try {
+                XmlDocumentWriter xml = XmlDocumentWriter.open(out);
+                writeCase(xml, rec, rulesXml);
+                xml.finish();
+            } catch (XMLStreamException e) {
+                throw new IOException("case.xml build error: " + e.getMessage(), e);
+            }
+        };
+        return ResponseEntity.ok().contentType(XML_UTF8).body(body);
     }
 
-    private static Document buildCaseDom(CatalogRecordEntity rec, String rulesXml) {
+    private static String buildCaseXml(CatalogRecordEntity rec, String rulesXml) {
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            try { dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true); } catch (Exception ignored) {}
-            try { dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true); } catch (Exception ignored) {}
-            try { dbf.setFeature("http://xml.org/sax/features/external-general-entities", false); } catch (Exception ignored) {}
-            try { dbf.setFeature("http://xml.org/sax/features/external-parameter-entities", false); } catch (Exception ignored) {}
-            try { dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false); } catch (Exception ignored) {}
-
-            Document doc = dbf.newDocumentBuilder().newDocument();
-            Element root = doc.createElement("case");
-            doc.appendChild(root);
-
-            // record
-            Element record = doc.createElement("record");
-            root.appendChild(record);
-
-            append(doc, record, "recordId", rec.getRecordId());
-            append(doc, record, "sessionId", rec.getSessionId());
-            append(doc, record, "fileKey", rec.getFileKey());
-            append(doc, record, "droneId", rec.getDroneId());
-            append(doc, record, "operatorId", rec.getOperatorId());
-            append(doc, record, "takenAt", rec.getTakenAt());
-            append(doc, record, "latitude", String.valueOf(rec.getLatitude()));
-            append(doc, record, "longitude", String.valueOf(rec.getLongitude()));
-            append(doc, record, "altitude", String.valueOf(rec.getAltitude()));
-            append(doc, record, "speedKmh", String.valueOf(rec.getSpeedKmh()));
-            append(doc, record, "confidence", String.valueOf(rec.getConfidence()));
-            append(doc, record, "decisionStatus", rec.getPenaltyDecisionStatus());
-            append(doc, record, "ruleCode", rec.getPenaltyRuleCode());
-            append(doc, record, "amount", String.valueOf(rec.getPenaltyAmount()));
-            append(doc, record, "requiresReview", String.valueOf(rec.isPenaltyRequiresReview()));
-            append(doc, record, "evidenceXml", rec.getEvidenceXml());
-
-            // rules (парсим и импортируем узел)
-            Document rulesDoc = dbf.newDocumentBuilder().parse(new InputSource(new StringReader(rulesXml)));
-            Element rules = (Element) doc.importNode(rulesDoc.getDocumentElement(), true);
-            root.appendChild(rules);
-
-            return doc;
-        } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot build case DOM: " + e.getMessage(), e);
+            return XmlDocumentWriter.toXml(xml -> writeCase(xml, rec, rulesXml));
+        } catch (XMLStreamException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot build case xml: " + e.getMessage(), e);
         }
     }
 
-    private static void append(Document doc, Element parent, String name, String value) {
-        Element e = doc.createElement(name);
-        e.setTextContent(value == null ? "" : value);
-        parent.appendChild(e);
+    // <case><record>...</record><rules>...</rules></case>
+    private static void writeCase(XmlDocumentWriter xml, CatalogRecordEntity rec, String rulesXml) throws XMLStreamException {
+        xml.start("case");
+
+        xml.start("record");
+        xml.element("recordId", rec.getRecordId());
+        xml.element("sessionId", rec.getSessionId());
+        xml.element("fileKey", rec.getFileKey());
+        xml.element("droneId", rec.getDroneId());
+        xml.element("operatorId", rec.getOperatorId());
+        xml.element("takenAt", rec.getTakenAt());
+        xml.element("latitude", String.valueOf(rec.getLatitude()));
+        xml.element("longitude", String.valueOf(rec.getLongitude()));
+        xml.element("altitude", String.valueOf(rec.getAltitude()));
+        xml.element("speedKmh", String.valueOf(rec.getSpeedKmh()));
+        xml.element("confidence", String.valueOf(rec.getConfidence()));
+        xml.element("decisionStatus", rec.getPenaltyDecisionStatus());
+        xml.element("ruleCode", rec.getPenaltyRuleCode());
+        xml.element("amount", String.valueOf(rec.getPenaltyAmount()));
+        xml.element("requiresReview", String.valueOf(rec.isPenaltyRequiresReview()));
+        xml.element("evidenceXml", rec.getEvidenceXml());
+        xml.end();
+
+        // rules — корневой элемент rules.xml целиком
+        xml.copyOf(rulesXml);
+
+        xml.end();
     }
 }
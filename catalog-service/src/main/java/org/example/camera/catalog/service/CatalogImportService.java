@@ -0,0 +1,143 @@
+package org.example.camera.catalog.service;
+
+import org.example.camera.catalog.db.CatalogRecordEntity;
+import org.example.camera.catalog.db.CatalogRecordRepository;
+import org.example.camera.common.dto.AnalysisResultDto;
+import org.example.camera.common.dto.CatalogImportRequestDto;
+import org.example.camera.common.dto.CatalogImportResponseDto;
+import org.example.camera.common.dto.PenaltyCheckRequestDto;
+import org.example.camera.common.dto.PhotoDto;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Импорт manifest + analysisResults в каталог — общий для REST (/api/catalog/import) и SOAP (importCatalog).
+ * Результаты анализа соединяются с фото по fileKey через хеш-индекс, существующие записи читаются одним
+ * IN-запросом, запись и постановка в outbox penalty — одна транзакция JDBC-батчами (PenaltyDispatcher.enqueue).
+ * Ошибки контракта — 400 (SOAP отдаёт их как Fault).
+ */
+@Service
+public class CatalogImportService {
+
+    private final CatalogRecordRepository records;
+    private final PenaltyDispatcher dispatcher;
+
+    public CatalogImportService(CatalogRecordRepository records, PenaltyDispatcher dispatcher) {
+        this.records = records;
+        this.dispatcher = dispatcher;
+    }
+
+    public CatalogImportResponseDto importSession(CatalogImportRequestDto req) {
+        validateImport(req);
+
+        // fileKey -> результат; при повторе fileKey берём первый, как прежний поиск по списку
+        Map<String, AnalysisResultDto> resultsByKey = new HashMap<>(req.analysisResults.size() * 2);
+        for (AnalysisResultDto ar : req.analysisResults) {
+            if (ar != null && ar.fileKey != null) resultsByKey.putIfAbsent(ar.fileKey, ar);
+        }
+
+        // сначала весь manifest: ошибка в любой фото — 400 до обращения к БД
+        Map<String, PhotoDto> photosById = new LinkedHashMap<>(req.manifest.photos.size() * 2);
+        for (PhotoDto p : req.manifest.photos) {
+            validatePhoto(p);
+            if (!resultsByKey.containsKey(p.fileKey)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "analysisResults missing for fileKey=" + p.fileKey);
+            }
+            // повтор fileKey в manifest — одна запись, данные последнего
+            String recordId = req.sessionId + ":" + p.fileKey;
+            photosById.put(recordId, p);
+        }
+
+        Map<String, CatalogRecordEntity> existing = new HashMap<>(photosById.size() * 2);
+        for (CatalogRecordEntity rec : records.findAllById(photosById.keySet())) existing.put(rec.getRecordId(), rec);
+
+        Instant now = Instant.now();
+        List<CatalogRecordEntity> recs = new ArrayList<>(photosById.size());
+        List<PenaltyCheckRequestDto> checks = new ArrayList<>(photosById.size());
+
+        for (Map.Entry<String, PhotoDto> e : photosById.entrySet()) {
+            String recordId = e.getKey();
+            PhotoDto p = e.getValue();
+            AnalysisResultDto ar = resultsByKey.get(p.fileKey);
+
+            CatalogRecordEntity rec = existing.get(recordId);
+            if (rec == null) {
+                rec = new CatalogRecordEntity(recordId);
+                rec.setCreatedAt(now);
+            }
+
+            rec.setUpdatedAt(now);
+            rec.setSessionId(req.sessionId);
+            rec.setFileKey(p.fileKey);
+            rec.setDroneId(req.manifest.droneId);
+            rec.setOperatorId(req.manifest.operatorId);
+
+            rec.setTakenAt(p.takenAt);
+            rec.setLatitude(p.latitude);
+            rec.setLongitude(p.longitude);
+            rec.setAltitude(p.altitude);
+
+            rec.setSpeedKmh(ar.speed);
+            rec.setDistanceMeters(ar.distance);
+            rec.setConfidence(ar.confidence);
+            rec.setObjectType(ar.objectType);
+            rec.setModelVersion(ar.modelVersion);
+
+            if (rec.getStatus() == null) rec.setStatus("RECEIVED");
+            recs.add(rec);
+
+            // Идемпотентность: если решение уже сохранено — повторно penalty не вызываем
+            if ("PENALTY_DECIDED".equals(rec.getStatus())) continue;
+
+            rec.setStatus("SENT_TO_PENALTY");
+
+            PenaltyCheckRequestDto r = new PenaltyCheckRequestDto();
+            r.recordId = recordId;
+            r.fileKey = p.fileKey;
+            r.droneId = req.manifest.droneId;
+            r.operatorId = req.manifest.operatorId;
+            r.speed = ar.speed;
+            r.confidence = ar.confidence;
+            r.time = p.takenAt;
+            r.location = p.latitude + "," + p.longitude;
+            checks.add(r);
+        }
+
+        // записи и задания в penalty — одной транзакцией; проверка идёт в фоне (PenaltyDispatcher)
+        dispatcher.enqueue(recs, checks);
+
+        CatalogImportResponseDto resp = new CatalogImportResponseDto();
+        resp.sessionId = req.sessionId;
+        resp.status = "IMPORTED";
+        resp.photosImported = req.manifest.photos.size();
+        resp.penaltyQueued = checks.size();
+        return resp;
+    }
+
+    private static void validateImport(CatalogImportRequestDto req) {
+        if (req == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "request body is required");
+        if (req.sessionId == null || req.sessionId.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sessionId is required");
+        if (req.manifest == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest is required");
+        if (req.manifest.droneId == null || req.manifest.droneId.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.droneId is required");
+        if (req.manifest.operatorId == null || req.manifest.operatorId.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.operatorId is required");
+        if (req.manifest.photos == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.photos is required");
+        if (req.analysisResults == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "analysisResults is required (no fallbacks allowed)");
+    }
+
+    private static void validatePhoto(PhotoDto p) {
+        if (p == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo entry is null");
+        if (p.fileKey == null || p.fileKey.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo.fileKey is required");
+        if (p.takenAt == null || p.takenAt.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo.takenAt is required for fileKey=" + p.fileKey);
+        if (!Double.isFinite(p.latitude) || !Double.isFinite(p.longitude)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo latitude/longitude must be finite for fileKey=" + p.fileKey);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.camera.catalog.service;
+
+import org.example.camera.catalog.db.CatalogRecordEntity;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * XML-представление записи каталога ({@code <catalog><record>...}) — DOM, по которому вычисляется XPath-поиск.
+ * DocumentBuilder не потокобезопасен: каждый поток держит свой (newBuilder) и переиспользует его.
+ */
+public final class CatalogRecordDom {
+
+    private CatalogRecordDom() {}
+
+    public static DocumentBuilder newBuilder() {
+        try {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(true);
+
+            // защита: никакого внешнего DTD/ENTITY
+            trySet(dbf, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            trySet(dbf, "http://apache.org/xml/features/disallow-doctype-decl", true);
+            trySet(dbf, "http://xml.org/sax/features/external-general-entities", false);
+            trySet(dbf, "http://xml.org/sax/features/external-parameter-entities", false);
+            trySet(dbf, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+
+            return dbf.newDocumentBuilder();
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot build DOM: " + e.getMessage(), e);
+        }
+    }
+
+    public static Document build(DocumentBuilder db, CatalogRecordEntity rec) {
+        Document doc = db.newDocument();
+
+        Element catalog = doc.createElement("catalog");
+        doc.appendChild(catalog);
+
+        Element record = doc.createElement("record");
+        catalog.appendChild(record);
+
+        append(doc, record, "recordId", rec.getRecordId());
+        append(doc, record, "sessionId", rec.getSessionId());
+        append(doc, record, "fileKey", rec.getFileKey());
+
+        append(doc, record, "droneId", rec.getDroneId());
+        append(doc, record, "operatorId", rec.getOperatorId());
+
+        append(doc, record, "takenAt", rec.getTakenAt());
+        append(doc, record, "latitude", String.valueOf(rec.getLatitude()));
+        append(doc, record, "longitude", String.valueOf(rec.getLongitude()));
+        append(doc, record, "altitude", String.valueOf(rec.getAltitude()));
+
+        append(doc, record, "speedKmh", String.valueOf(rec.getSpeedKmh()));
+        append(doc, record, "distanceMeters", String.valueOf(rec.getDistanceMeters()));
+        append(doc, record, "confidence", String.valueOf(rec.getConfidence()));
+
+        append(doc, record, "status", rec.getStatus());
+
+        append(doc, record, "decisionStatus", rec.getPenaltyDecisionStatus());
+        append(doc, record, "ruleCode", rec.getPenaltyRuleCode());
+        append(doc, record, "amount", String.valueOf(rec.getPenaltyAmount()));
+        append(doc, record, "requiresReview", String.valueOf(rec.isPenaltyRequiresReview()));
+
+        append(doc, record, "evidenceXml", rec.getEvidenceXml());
+
+        return doc;
+    }
+
+    private static void append(Document doc, Element parent, String name, String value) {
+        Element e = doc.createElement(name);
+        e.setTextContent(value == null ? "" : value);
+        parent.appendChild(e);
+    }
+
+    private static void trySet(DocumentBuilderFactory dbf, String feature, boolean value) {
+        try { dbf.setFeature(feature, value); } catch (Exception ignored) {}
+    }
+}
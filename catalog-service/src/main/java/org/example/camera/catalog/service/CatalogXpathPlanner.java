@@ -0,0 +1,398 @@
+package org.example.camera.catalog.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.example.camera.catalog.db.CatalogRecordEntity;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Планировщик XPath-поиска по записям каталога (GET /api/catalog/search): частые формы выражений над плоскими
+ * элементами записи переводятся в SQL-условия — и выполняются по индексам, без DOM на каждую запись.
+ * <p>
+ * Переводится: {@code /catalog/record[...]} и {@code //record[...]} (несколько предикатов, хвост {@code /поле}),
+ * те же условия без предиката ({@code /catalog/record/поле}, {@code //поле}); внутри — {@code and}/{@code or},
+ * скобки, сравнение поля с литералом ({@code = != < <= > >=}), {@code contains} и {@code starts-with}.
+ * Всё остальное — null: контроллер проверяет такие выражения прежним проходом по DOM.
+ * <p>
+ * Результат совпадает с DOM-проходом: пустое значение в XML — это NULL в БД, а числа в XML записаны
+ * {@code String.valueOf(double)} — вне [1e-3, 1e7) это экспоненциальная запись, и XPath видит в ней NaN.
+ */
+@Service
+public class CatalogXpathPlanner {
+
+    private enum Kind { STRING, NUMBER, BOOLEAN }
+
+    private static final class Field {
+        final String attribute;
+        final Kind kind;
+
+        Field(String attribute, Kind kind) {
+            this.attribute = attribute;
+            this.kind = kind;
+        }
+    }
+
+    // элементы XML-представления записи (CatalogRecordDom) -> атрибуты сущности;
+    // evidenceXml (LOB) сюда не входит — по нему ищем DOM-проходом
+    private static final Map<String, Field> FIELDS = Map.ofEntries(
+            Map.entry("recordId", new Field("recordId", Kind.STRING)),
+            Map.entry("sessionId", new Field("sessionId", Kind.STRING)),
+            Map.entry("fileKey", new Field("fileKey", Kind.STRING)),
+            Map.entry("droneId", new Field("droneId", Kind.STRING)),
+            Map.entry("operatorId", new Field("operatorId", Kind.STRING)),
+            Map.entry("takenAt", new Field("takenAt", Kind.STRING)),
+            Map.entry("latitude", new Field("latitude", Kind.NUMBER)),
+            Map.entry("longitude", new Field("longitude", Kind.NUMBER)),
+            Map.entry("altitude", new Field("altitude", Kind.NUMBER)),
+            Map.entry("speedKmh", new Field("speedKmh", Kind.NUMBER)),
+            Map.entry("distanceMeters", new Field("distanceMeters", Kind.NUMBER)),
+            Map.entry("confidence", new Field("confidence", Kind.NUMBER)),
+            Map.entry("status", new Field("status", Kind.STRING)),
+            Map.entry("decisionStatus", new Field("penaltyDecisionStatus", Kind.STRING)),
+            Map.entry("ruleCode", new Field("penaltyRuleCode", Kind.STRING)),
+            Map.entry("amount", new Field("penaltyAmount", Kind.NUMBER)),
+            Map.entry("requiresReview", new Field("penaltyRequiresReview", Kind.BOOLEAN))
+    );
+
+    @PersistenceContext
+    private EntityManager em;
+
+    /** recordId подходящих записей по возрастанию; null — выражение не переводится в SQL. */
+    @Transactional(readOnly = true)
+    public List<String> search(String xpath) {
+        Specification<CatalogRecordEntity> spec = plan(xpath);
+        return (spec != null) ? findIds(spec, null, 0) : null;
+    }
+
+    /** Keyset-страница: до limit (0 — без ограничения) recordId > after (null — с начала) по возрастанию. */
+    @Transactional(readOnly = true)
+    public List<String> findIds(Specification<CatalogRecordEntity> spec, String after, int limit) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<String> q = cb.createQuery(String.class);
+        Root<CatalogRecordEntity> r = q.from(CatalogRecordEntity.class);
+        Predicate where = spec.toPredicate(r, q, cb);
+        if (after != null) where = cb.and(where, cb.greaterThan(r.get("recordId"), after));
+        q.select(r.get("recordId"))
+                .where(where)
+                .orderBy(cb.asc(r.get("recordId")));
+        TypedQuery<String> query = em.createQuery(q);
+        if (limit > 0) query.setMaxResults(limit);
+        return query.getResultList();
+    }
+
+    /** SQL-условие для выражения; null — выражение не переводится. */
+    public Specification<CatalogRecordEntity> plan(String xpath) {
+        List<String> tokens;
+        try {
+            tokens = tokenize(xpath);
+        } catch (Unsupported e) {
+            return null;
+        }
+        // /catalog/record[...] — nodeset; /catalog/record/speedKmh > 90 — boolean: пробуем обе формы
+        try {
+            return new Parser(tokens).recordPath();
+        } catch (Unsupported e) {
+            // не путь к record — разбираем как условие
+        }
+        try {
+            return new Parser(tokens).condition();
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    // ---------- разбор ----------
+
+    private static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static List<String> tokenize(String s) {
+        List<String> out = new ArrayList<>();
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '/') {
+                boolean dbl = i + 1 < n && s.charAt(i + 1) == '/';
+                out.add(dbl ? "//" : "/");
+                i += dbl ? 2 : 1;
+            } else if ("[](),=-".indexOf(c) >= 0) {
+                out.add(String.valueOf(c));
+                i++;
+            } else if (c == '!' || c == '<' || c == '>') {
+                boolean eq = i + 1 < n && s.charAt(i + 1) == '=';
+                if (c == '!' && !eq) throw new Unsupported();
+                out.add(eq ? c + "=" : String.valueOf(c));
+                i += eq ? 2 : 1;
+            } else if (c == '\'' || c == '"') {
+                int end = s.indexOf(c, i + 1);
+                if (end < 0) throw new Unsupported();
+                out.add(s.substring(i, end + 1)); // литерал — вместе с кавычками
+                i = end + 1;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(s.charAt(i + 1)))) {
+                int start = i;
+                while (i < n && Character.isDigit(s.charAt(i))) i++;
+                if (i < n && s.charAt(i) == '.') {
+                    i++;
+                    while (i < n && Character.isDigit(s.charAt(i))) i++;
+                }
+                out.add(s.substring(start, i));
+            } else if (c == '.') {
+                out.add(".");
+                i++;
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < n && (Character.isLetterOrDigit(s.charAt(i)) || "_-.".indexOf(s.charAt(i)) >= 0)) i++;
+                out.add(s.substring(start, i));
+            } else {
+                throw new Unsupported(); // оси, атрибуты, *, |, переменные — не переводим
+            }
+        }
+        return out;
+    }
+
+    private static final class Parser {
+        private final List<String> tokens;
+        private int pos;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        /** /catalog/record | //record, затем [условие]*, затем необязательный /поле. */
+        Specification<CatalogRecordEntity> recordPath() {
+            if (accept("/")) {
+                expect("catalog");
+                expect("/");
+            } else {
+                expect("//");
+            }
+            expect("record");
+
+            Specification<CatalogRecordEntity> spec = (r, q, cb) -> cb.conjunction();
+            while (accept("[")) {
+                spec = spec.and(or(true));
+                expect("]");
+            }
+            // элементы полей есть у каждой записи — хвост /поле на выборку не влияет
+            if (accept("/")) field(next());
+            expectEnd();
+            return spec;
+        }
+
+        Specification<CatalogRecordEntity> condition() {
+            Specification<CatalogRecordEntity> spec = or(false);
+            expectEnd();
+            return spec;
+        }
+
+        private Specification<CatalogRecordEntity> or(boolean inPredicate) {
+            Specification<CatalogRecordEntity> spec = and(inPredicate);
+            while (accept("or")) spec = spec.or(and(inPredicate));
+            return spec;
+        }
+
+        private Specification<CatalogRecordEntity> and(boolean inPredicate) {
+            Specification<CatalogRecordEntity> spec = primary(inPredicate);
+            while (accept("and")) spec = spec.and(primary(inPredicate));
+            return spec;
+        }
+
+        private Specification<CatalogRecordEntity> primary(boolean inPredicate) {
+            if (accept("(")) {
+                Specification<CatalogRecordEntity> spec = or(inPredicate);
+                expect(")");
+                return spec;
+            }
+            if ((peek("contains") || peek("starts-with")) && "(".equals(at(pos + 1))) {
+                boolean prefix = next().equals("starts-with");
+                next();
+                Field f = fieldRef(inPredicate);
+                expect(",");
+                Object lit = literal();
+                expect(")");
+                if (f.kind != Kind.STRING || !(lit instanceof String s)) throw new Unsupported();
+                return like(f, s, prefix);
+            }
+            if (isLiteralStart()) {
+                Object lit = literal();
+                String op = operator();
+                return compare(fieldRef(inPredicate), flip(op), lit);
+            }
+            Field f = fieldRef(inPredicate);
+            String op = operator();
+            return compare(f, op, literal());
+        }
+
+        // поле в предикате — относительно record (status, ./status); абсолютные пути ведут к той же записи
+        private Field fieldRef(boolean inPredicate) {
+            if (accept("/")) {
+                expect("catalog");
+                expect("/");
+                expect("record");
+                expect("/");
+                return field(next());
+            }
+            if (accept("//")) {
+                if (accept("record")) expect("/");
+                return field(next());
+            }
+            if (!inPredicate) throw new Unsupported();
+            if (accept(".")) expect("/");
+            return field(next());
+        }
+
+        private Object literal() {
+            String t = next();
+            if (t.startsWith("'") || t.startsWith("\"")) return t.substring(1, t.length() - 1);
+            boolean negative = t.equals("-");
+            if (negative) t = next();
+            if (!isNumber(t)) throw new Unsupported(); // "." — узел контекста, а не число
+            try {
+                double v = Double.parseDouble(t);
+                return negative ? -v : v;
+            } catch (NumberFormatException e) {
+                throw new Unsupported();
+            }
+        }
+
+        private boolean isLiteralStart() {
+            String t = at(pos);
+            return t != null && (t.startsWith("'") || t.startsWith("\"") || t.equals("-") || isNumber(t));
+        }
+
+        // число XPath: цифры, или точка и цифры за ней
+        private static boolean isNumber(String t) {
+            return t != null && !t.isEmpty() && (Character.isDigit(t.charAt(0))
+                    || (t.length() > 1 && t.charAt(0) == '.' && Character.isDigit(t.charAt(1))));
+        }
+
+        private String operator() {
+            String t = next();
+            switch (t) {
+                case "=", "!=", "<", "<=", ">", ">=" -> { return t; }
+                default -> throw new Unsupported();
+            }
+        }
+
+        private static Field field(String name) {
+            Field f = FIELDS.get(name);
+            if (f == null) throw new Unsupported();
+            return f;
+        }
+
+        private String at(int i) {
+            return i < tokens.size() ? tokens.get(i) : null;
+        }
+
+        private boolean peek(String t) {
+            return t.equals(at(pos));
+        }
+
+        private boolean accept(String t) {
+            if (!peek(t)) return false;
+            pos++;
+            return true;
+        }
+
+        private void expect(String t) {
+            if (!accept(t)) throw new Unsupported();
+        }
+
+        private String next() {
+            String t = at(pos++);
+            if (t == null) throw new Unsupported();
+            return t;
+        }
+
+        private void expectEnd() {
+            if (pos != tokens.size()) throw new Unsupported();
+        }
+    }
+
+    // ---------- SQL-условия с семантикой XPath 1.0 ----------
+
+    private static String flip(String op) {
+        return switch (op) {
+            case "<" -> ">";
+            case "<=" -> ">=";
+            case ">" -> "<";
+            case ">=" -> "<=";
+            default -> op;
+        };
+    }
+
+    private static Specification<CatalogRecordEntity> compare(Field f, String op, Object lit) {
+        boolean eq = op.equals("=");
+        boolean ne = op.equals("!=");
+        switch (f.kind) {
+            case STRING -> {
+                // строка с числом и < > над строками XPath сравнивает как числа — это оставляем DOM-проходу
+                if (!(lit instanceof String s) || !(eq || ne)) throw new Unsupported();
+                return (r, q, cb) -> {
+                    Expression<String> col = r.get(f.attribute);
+                    // пустой элемент в XML — NULL в БД
+                    if (s.isEmpty()) return eq ? cb.or(cb.isNull(col), cb.equal(col, ""))
+                                               : cb.and(cb.isNotNull(col), cb.notEqual(col, ""));
+                    return eq ? cb.equal(col, s) : cb.or(cb.isNull(col), cb.notEqual(col, s));
+                };
+            }
+            case BOOLEAN -> {
+                if (!(lit instanceof String s) || !(eq || ne)) throw new Unsupported();
+                return (r, q, cb) -> {
+                    Expression<Boolean> col = r.get(f.attribute);
+                    if (!s.equals("true") && !s.equals("false")) return ne ? cb.conjunction() : cb.disjunction();
+                    return (eq == s.equals("true")) ? cb.isTrue(col) : cb.isFalse(col);
+                };
+            }
+            default -> {
+                // число со строкой XPath сравнивает как строки ("100.0" = '100' — false) — DOM-проходу
+                if (!(lit instanceof Double v)) throw new Unsupported();
+                return (r, q, cb) -> {
+                    Expression<Double> col = r.get(f.attribute);
+                    Predicate plain = plainDecimal(cb, col);
+                    return switch (op) {
+                        case "=" -> cb.and(plain, cb.equal(col, v));
+                        case "!=" -> cb.or(cb.not(plain), cb.notEqual(col, v)); // NaN != x — true
+                        case "<" -> cb.and(plain, cb.lessThan(col, v));
+                        case "<=" -> cb.and(plain, cb.lessThanOrEqualTo(col, v));
+                        case ">" -> cb.and(plain, cb.greaterThan(col, v));
+                        default -> cb.and(plain, cb.greaterThanOrEqualTo(col, v));
+                    };
+                };
+            }
+        }
+    }
+
+    // String.valueOf(double) без экспоненты: 0 и 1e-3 <= |x| < 1e7; остальное (и Infinity/NaN) для XPath — NaN
+    private static Predicate plainDecimal(CriteriaBuilder cb, Expression<Double> col) {
+        return cb.or(
+                cb.equal(col, 0.0),
+                cb.and(cb.greaterThanOrEqualTo(col, 1e-3), cb.lessThan(col, 1e7)),
+                cb.and(cb.greaterThan(col, -1e7), cb.lessThanOrEqualTo(col, -1e-3)));
+    }
+
+    private static Specification<CatalogRecordEntity> like(Field f, String s, boolean prefix) {
+        if (s.isEmpty()) return (r, q, cb) -> cb.conjunction(); // contains(x, '') — true и для пустого
+        String escaped = s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        String pattern = prefix ? escaped + "%" : "%" + escaped + "%";
+        return (r, q, cb) -> cb.like(r.get(f.attribute), pattern, '\\');
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.camera.catalog.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.camera.catalog.db.CatalogRecordEntity;
+import org.example.camera.catalog.db.CatalogRecordRepository;
+import org.example.camera.common.concurrent.WorkerThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XPath-поиск проходом по записям — для выражений, которые CatalogXpathPlanner не переводит в SQL.
+ * Записи читаются keyset-пачками по recordId (в памяти одна пачка), пачка делится между потоками пула;
+ * у каждого потока свои DocumentBuilder и XPath (они не потокобезопасны), выражение компилируется на часть пачки.
+ * Совпадения отдаются по возрастанию recordId по мере проверки пачек.
+ */
+@Service
+public class CatalogXpathScanner {
+
+    /** Получатель совпадений; IOException (клиент отключился) прекращает проход. */
+    @FunctionalInterface
+    public interface Sink {
+        void accept(String recordId) throws IOException;
+    }
+
+    private static final ThreadLocal<DocumentBuilder> BUILDER = ThreadLocal.withInitial(CatalogRecordDom::newBuilder);
+    private static final ThreadLocal<XPath> XPATH = ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
+
+    private final CatalogRecordRepository records;
+    private final ExecutorService evaluators;
+    private final int threads;
+    private final int batchSize;
+
+    public CatalogXpathScanner(CatalogRecordRepository records, WorkerThreads workerThreads,
+                               @Value("${app.catalog.search.threads}") int threads,
+                               @Value("${app.catalog.search.batch-size}") int batchSize) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("app.catalog.search.threads / batch-size must be positive");
+        }
+        this.records = records;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.evaluators = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                workerThreads.factory("xpath-scan-"));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        evaluators.shutdownNow();
+    }
+
+    /** Выражение, которое не вычисляется ни как nodeset, ни как boolean, — 400 до начала прохода. */
+    public void checkEvaluable(String xpath) {
+        matches(compile(xpath), CatalogRecordDom.build(BUILDER.get(), new CatalogRecordEntity("")));
+    }
+
+    /**
+     * Проход по записям с recordId > after (after == null — с начала). limit > 0 — остановиться на limit-м
+     * совпадении и вернуть его recordId как курсор продолжения; null — записи кончились.
+     */
+    public String scan(String xpath, String after, int limit, Sink sink) throws IOException {
+        String cursor = (after != null) ? after : "";
+        int found = 0;
+        while (true) {
+            List<CatalogRecordEntity> batch =
+                    records.findByRecordIdGreaterThanOrderByRecordIdAsc(cursor, Limit.of(batchSize));
+            if (batch.isEmpty()) return null;
+
+            boolean[] hit = evaluate(xpath, batch);
+            for (int i = 0; i < hit.length; i++) {
+                if (!hit[i]) continue;
+                String recordId = batch.get(i).getRecordId();
+                sink.accept(recordId);
+                if (limit > 0 && ++found == limit) return recordId;
+            }
+            if (batch.size() < batchSize) return null;
+            cursor = batch.get(batch.size() - 1).getRecordId();
+        }
+    }
+
+    private boolean[] evaluate(String xpath, List<CatalogRecordEntity> batch) {
+        int n = batch.size();
+        boolean[] hit = new boolean[n];
+        int parts = Math.min(threads, n);
+        List<Future<?>> futures = new ArrayList<>(parts);
+        for (int p = 0; p < parts; p++) {
+            int from = n * p / parts;
+            int to = n * (p + 1) / parts;
+            futures.add(evaluators.submit(() -> {
+                XPathExpression expr = compile(xpath);
+                DocumentBuilder db = BUILDER.get();
+                for (int i = from; i < to; i++) hit[i] = matches(expr, CatalogRecordDom.build(db, batch.get(i)));
+            }));
+        }
+        try {
+            for (Future<?> f : futures) f.get();
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "xpath scan interrupted", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException("xpath scan failed: " + e.getCause(), e.getCause());
+        }
+        // Future.get даёт happens-before: записи потоков в hit видны
+        return hit;
+    }
+
+    private static XPathExpression compile(String xpath) {
+        try {
+            return XPATH.get().compile(xpath);
+        } catch (XPathExpressionException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid XPath: " + e.getMessage(), e);
+        }
+    }
+
+    // запись подходит, если XPath даёт непустой nodeset ИЛИ boolean=true
+    private static boolean matches(XPathExpression expr, Document doc) {
+        try {
+            Object nodes = expr.evaluate(doc, XPathConstants.NODESET);
+            if (nodes instanceof NodeList nl && nl.getLength() > 0) return true;
+        } catch (Exception ignored) {
+            // выражение может быть boolean/string — пробуем boolean ниже
+        }
+
+        try {
+            return Boolean.TRUE.equals(expr.evaluate(doc, XPathConstants.BOOLEAN));
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid XPath: " + e.getMessage(), e);
+        }
+    }
+}
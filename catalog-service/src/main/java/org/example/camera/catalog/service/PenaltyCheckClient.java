@@ -0,0 +1,60 @@
+package org.example.camera.catalog.service;
+
+import org.example.camera.common.dto.PenaltyCheckRequestDto;
+import org.example.camera.common.dto.PenaltyCheckResponseDto;
+import org.example.camera.common.http.InterServiceHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Проверка записей в penalty-service пачками (POST /api/penalty/check/batch):
+ * один запрос на batchSize записей вместо запроса на каждую.
+ */
+@Service
+public class PenaltyCheckClient {
+
+    private final RestTemplate rest;
+    private final String penaltyBaseUrl;
+    private final int batchSize;
+
+    public PenaltyCheckClient(InterServiceHttpClient http,
+                              @Value("${app.penalty.base-url}") String penaltyBaseUrl,
+                              @Value("${app.penalty.check.batch-size}") int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("app.penalty.check.batch-size must be positive");
+        // check в penalty — upsert по recordId, повтор пачки безопасен
+        this.rest = http.idempotentRest("penalty");
+        this.penaltyBaseUrl = penaltyBaseUrl;
+        this.batchSize = batchSize;
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Ответы в порядке запросов. Ошибка вызова, пустой ответ или ответ не по тем recordId —
+     * RestClientException: вся пачка считается непроверенной.
+     */
+    public List<PenaltyCheckResponseDto> checkBatch(List<PenaltyCheckRequestDto> batch) {
+        PenaltyCheckResponseDto[] body = rest.postForObject(
+                penaltyBaseUrl + "/api/penalty/check/batch",
+                batch,
+                PenaltyCheckResponseDto[].class
+        );
+        if (body == null) throw new RestClientException("penalty-service returned empty body");
+        if (body.length != batch.size()) {
+            throw new RestClientException("penalty-service returned " + body.length + " results for " + batch.size() + " records");
+        }
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] == null || !batch.get(i).recordId.equals(body[i].recordId)) {
+                throw new RestClientException("penalty-service result " + i + " does not match recordId=" + batch.get(i).recordId);
+            }
+        }
+        return Arrays.asList(body);
+    }
+}
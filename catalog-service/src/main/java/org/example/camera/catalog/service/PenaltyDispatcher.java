@@ -0,0 +1,172 @@
+package org.example.camera.catalog.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.camera.catalog.db.CatalogRecordEntity;
+import org.example.camera.catalog.db.PenaltyOutboxEntity;
+import org.example.camera.common.concurrent.WorkerThreads;
+import org.example.camera.common.dto.PenaltyCheckRequestDto;
+import org.example.camera.common.dto.PenaltyCheckResponseDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Доставка outbox в penalty: импорт только ставит задания (PenaltyOutbox.enqueue) и отвечает,
+ * фоновый опросчик берёт готовые задания пачками по batch-size и отправляет не больше max-in-flight
+ * пачек одновременно. Временные ошибки — повтор с backoff, задания переживают недоступность penalty
+ * и перезапуск catalog. Доставка «хотя бы раз»: penalty делает upsert по recordId, повтор безопасен.
+ */
+@Service
+public class PenaltyDispatcher {
+
+    private final PenaltyOutbox outbox;
+    private final PenaltyCheckClient penalty;
+    private final ExecutorService callers;
+    private final Thread poller;
+    private final Semaphore inFlight;
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final long pollIntervalMs;
+
+    private volatile boolean running = true;
+
+    public PenaltyDispatcher(PenaltyOutbox outbox, PenaltyCheckClient penalty, WorkerThreads workerThreads,
+                             @Value("${app.penalty.check.max-in-flight}") int maxInFlight,
+                             @Value("${app.penalty.outbox.poll-interval-ms}") long pollIntervalMs) {
+        if (maxInFlight < 1 || pollIntervalMs < 1) {
+            throw new IllegalArgumentException("app.penalty.check.max-in-flight / outbox.poll-interval-ms must be positive");
+        }
+        this.outbox = outbox;
+        this.penalty = penalty;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.pollIntervalMs = pollIntervalMs;
+
+        // очередь не растёт больше max-in-flight: пачку берём из outbox, только получив разрешение
+        this.callers = new ThreadPoolExecutor(
+                maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                workerThreads.factory("penalty-check-"));
+        this.poller = workerThreads.factory("penalty-outbox-").newThread(this::pollLoop);
+    }
+
+    /** Сохранить записи импорта и поставить непроверенные в outbox; отправка — в фоне. */
+    public void enqueue(List<CatalogRecordEntity> recs, List<PenaltyCheckRequestDto> checks) {
+        outbox.enqueue(recs, checks);
+        if (!checks.isEmpty()) wakeUp.release();
+    }
+
+    // задания, оставшиеся с прошлого запуска, начинаем отправлять, когда приложение поднялось
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        poller.start();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        poller.interrupt();
+        callers.shutdown();
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                inFlight.acquire();
+                List<PenaltyOutboxEntity> batch;
+                try {
+                    batch = outbox.claimDue(penalty.batchSize());
+                } catch (RuntimeException e) {
+                    batch = List.of(); // БД недоступна — следующий опрос
+                }
+                if (batch.isEmpty()) {
+                    inFlight.release();
+                    wakeUp.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                    wakeUp.drainPermits();
+                    continue;
+                }
+                List<PenaltyOutboxEntity> claimed = batch;
+                callers.execute(() -> {
+                    try {
+                        deliver(claimed);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void deliver(List<PenaltyOutboxEntity> rows) {
+        long leaseId = rows.get(0).getLeaseId(); // пачка из одного claimDue — аренда общая
+        try {
+            List<PenaltyOutboxEntity> sendable = new ArrayList<>(rows.size());
+            List<PenaltyCheckRequestDto> checks = new ArrayList<>(rows.size());
+            for (PenaltyOutboxEntity row : rows) {
+                PenaltyCheckRequestDto check = readPayload(leaseId, row);
+                if (check == null) continue;
+                sendable.add(row);
+                checks.add(check);
+            }
+            if (sendable.isEmpty()) return;
+            rows = sendable;
+
+            List<PenaltyCheckResponseDto> resps = penalty.checkBatch(checks);
+            outbox.complete(leaseId, resps);
+        } catch (HttpClientErrorException e) {
+            int status = e.getStatusCode().value();
+            if (status == 400 || status == 413) {
+                if (rows.size() > 1) {
+                    // penalty отвергает пачку целиком — делим пополам, пока отказ не останется только у плохой записи
+                    int half = rows.size() / 2;
+                    deliver(rows.subList(0, half));
+                    deliver(rows.subList(half, rows.size()));
+                } else {
+                    reject(leaseId, rows.get(0)); // одна запись и та слишком велика/некорректна — повтор не поможет
+                }
+            } else {
+                retryLater(leaseId, rows, e); // например, 412: rules.xml ещё не загружен в penalty
+            }
+        } catch (RuntimeException e) {
+            retryLater(leaseId, rows, e);
+        }
+    }
+
+    // payload, который не читается, не отправляется: задание отклоняется, а не ходит по кругу
+    private PenaltyCheckRequestDto readPayload(long leaseId, PenaltyOutboxEntity row) {
+        try {
+            return outbox.payload(row);
+        } catch (IllegalStateException e) {
+            reject(leaseId, row);
+            return null;
+        }
+    }
+
+    private void reject(long leaseId, PenaltyOutboxEntity row) {
+        try {
+            outbox.reject(leaseId, row.getRecordId());
+        } catch (RuntimeException ignored) {
+            // не записали отказ — задание вернётся по окончании аренды
+        }
+    }
+
+    private void retryLater(long leaseId, List<PenaltyOutboxEntity> rows, RuntimeException cause) {
+        List<String> ids = new ArrayList<>(rows.size());
+        for (PenaltyOutboxEntity row : rows) ids.add(row.getRecordId());
+        try {
+            outbox.retryLater(leaseId, ids, cause.getMessage());
+        } catch (RuntimeException ignored) {
+            // не записали попытку — задания вернутся сами по окончании аренды
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.example.camera.catalog.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.camera.catalog.db.CatalogRecordEntity;
+import org.example.camera.catalog.db.CatalogRecordRepository;
+import org.example.camera.catalog.db.PenaltyOutboxEntity;
+import org.example.camera.catalog.db.PenaltyOutboxRepository;
+import org.example.camera.common.dto.PenaltyCheckRequestDto;
+import org.example.camera.common.dto.PenaltyCheckResponseDto;
+import org.example.camera.common.dto.PenaltyOutboxStatsDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Транзакции outbox проверок в penalty: постановка вместе с записями каталога, аренда готовых заданий,
+ * итог попытки (решение в запись и удаление задания / повтор с backoff / окончательный отказ).
+ * Итог применяется только к заданиям, которые всё ещё в той же аренде (leaseId): если запись
+ * переимпортировали, пока пачка была в penalty, задание с новым payload остаётся и уйдёт заново.
+ */
+@Service
+public class PenaltyOutbox {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final PenaltyOutboxRepository outbox;
+    private final CatalogRecordRepository records;
+    private final ObjectMapper json;
+    private final long leaseMs;
+    private final long retryBackoffMs;
+    private final long maxBackoffMs;
+
+    public PenaltyOutbox(PenaltyOutboxRepository outbox, CatalogRecordRepository records, ObjectMapper json,
+                         @Value("${app.penalty.outbox.lease-ms}") long leaseMs,
+                         @Value("${app.penalty.outbox.retry-backoff-ms}") long retryBackoffMs,
+                         @Value("${app.penalty.outbox.max-backoff-ms}") long maxBackoffMs) {
+        if (leaseMs < 1 || retryBackoffMs < 1 || maxBackoffMs < retryBackoffMs) {
+            throw new IllegalArgumentException("app.penalty.outbox.*: lease/backoff must be positive, max-backoff >= retry-backoff");
+        }
+        this.outbox = outbox;
+        this.records = records;
+        this.json = json;
+        this.leaseMs = leaseMs;
+        this.retryBackoffMs = retryBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /** Записи каталога и задания на проверку — одной транзакцией: либо сохранено всё, либо ничего. */
+    @Transactional
+    public void enqueue(List<CatalogRecordEntity> recs, List<PenaltyCheckRequestDto> checks) {
+        if (checks.isEmpty()) {
+            records.saveAll(recs);
+            return;
+        }
+
+        Instant now = Instant.now();
+        // сначала блокировка заданий, потом записи — в том же порядке, что и в complete
+        Map<String, PenaltyOutboxEntity> existing = new HashMap<>();
+        for (PenaltyOutboxEntity e : outbox.findByRecordIdIn(checks.stream().map(c -> c.recordId).toList())) {
+            existing.put(e.getRecordId(), e);
+        }
+        records.saveAll(recs);
+
+        List<PenaltyOutboxEntity> rows = new ArrayList<>(checks.size());
+        for (PenaltyCheckRequestDto check : checks) {
+            PenaltyOutboxEntity row = existing.get(check.recordId);
+            if (row == null) {
+                row = new PenaltyOutboxEntity(check.recordId);
+                row.setCreatedAt(now);
+                existing.put(check.recordId, row);
+                rows.add(row);
+            }
+            // повторный импорт: новые данные, попытки заново
+            row.setPayload(toJson(check));
+            row.setAttempts(0);
+            row.setNextAttemptAt(now.toEpochMilli());
+            row.setLeaseId(0);
+            row.setLastError(null);
+            row.setUpdatedAt(now);
+        }
+        outbox.saveAll(rows);
+    }
+
+    /**
+     * До limit готовых заданий под одной новой арендой (leaseId у всех одинаковый); взятые сдвигаются
+     * на конец аренды — не завершённые за это время вернутся сами.
+     */
+    @Transactional
+    public List<PenaltyOutboxEntity> claimDue(int limit) {
+        long now = System.currentTimeMillis();
+        long leaseId = newLeaseId();
+        List<PenaltyOutboxEntity> due = outbox.findByNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(now, Limit.of(limit));
+        for (PenaltyOutboxEntity row : due) {
+            row.setNextAttemptAt(now + leaseMs);
+            row.setLeaseId(leaseId);
+        }
+        return due;
+    }
+
+    /** Решения penalty — в записи каталога (PENALTY_DECIDED), задания удаляются; устаревшие ответы пропускаются. */
+    @Transactional
+    public void complete(long leaseId, List<PenaltyCheckResponseDto> resps) {
+        Instant now = Instant.now();
+        List<PenaltyOutboxEntity> owned = outbox.findByLeaseIdAndRecordIdIn(leaseId, resps.stream().map(r -> r.recordId).toList());
+        if (owned.isEmpty()) return;
+        List<String> ids = owned.stream().map(PenaltyOutboxEntity::getRecordId).toList();
+
+        Map<String, CatalogRecordEntity> recs = new HashMap<>();
+        for (CatalogRecordEntity rec : records.findAllById(ids)) recs.put(rec.getRecordId(), rec);
+
+        for (PenaltyCheckResponseDto resp : resps) {
+            CatalogRecordEntity rec = recs.get(resp.recordId);
+            if (rec == null) continue; // запись удалили или её задание переимпортировано — решение устарело
+
+            rec.setPenaltyDecisionStatus(resp.decisionStatus);
+            rec.setPenaltyRuleCode(resp.ruleCode);
+            rec.setPenaltyAmount(resp.amount);
+            rec.setPenaltyRequiresReview(resp.requiresReview);
+            rec.setEvidenceXml(resp.evidenceXml);
+
+            rec.setStatus("PENALTY_DECIDED");
+            rec.setUpdatedAt(now);
+        }
+        outbox.deleteAllInBatch(owned);
+    }
+
+    /** Временная ошибка (сеть, 5xx, нет rules.xml): следующая попытка через backoff с jitter. */
+    @Transactional
+    public void retryLater(long leaseId, List<String> recordIds, String error) {
+        Instant now = Instant.now();
+        for (PenaltyOutboxEntity row : outbox.findByLeaseIdAndRecordIdIn(leaseId, recordIds)) {
+            int attempts = row.getAttempts() + 1;
+            row.setAttempts(attempts);
+            row.setNextAttemptAt(now.toEpochMilli() + backoffMs(attempts));
+            row.setLastError(truncate(error));
+            row.setUpdatedAt(now);
+        }
+    }
+
+    /**
+     * Задание не может быть проверено (penalty ответил 400/413 на одну запись, payload не читается) —
+     * повтор не поможет: запись PENALTY_FAILED, задание удаляется.
+     */
+    @Transactional
+    public void reject(long leaseId, String recordId) {
+        List<PenaltyOutboxEntity> owned = outbox.findByLeaseIdAndRecordIdIn(leaseId, List.of(recordId));
+        if (owned.isEmpty()) return;
+        records.findById(recordId).ifPresent(rec -> {
+            rec.setStatus("PENALTY_FAILED");
+            rec.setUpdatedAt(Instant.now());
+        });
+        outbox.deleteAllInBatch(owned);
+    }
+
+    @Transactional(readOnly = true)
+    public PenaltyOutboxStatsDto stats() {
+        PenaltyOutboxStatsDto dto = new PenaltyOutboxStatsDto();
+        dto.pending = outbox.count();
+        dto.retrying = outbox.countByAttemptsGreaterThan(0);
+        outbox.findFirstByOrderByCreatedAtAsc().ifPresent(e -> dto.oldestCreatedAt = e.getCreatedAt().toString());
+        outbox.findFirstByLastErrorNotNullOrderByUpdatedAtDesc().ifPresent(e -> {
+            dto.lastErrorRecordId = e.getRecordId();
+            dto.lastError = e.getLastError();
+        });
+        return dto;
+    }
+
+    PenaltyCheckRequestDto payload(PenaltyOutboxEntity row) {
+        try {
+            return json.readValue(row.getPayload(), PenaltyCheckRequestDto.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Broken outbox payload for recordId=" + row.getRecordId(), e);
+        }
+    }
+
+    // 0 зарезервирован за «не в аренде»
+    private static long newLeaseId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    // retryBackoffMs * 2^(attempts-1), не больше maxBackoffMs; jitter до половины — повторы после сбоя не идут строем
+    private long backoffMs(int attempts) {
+        long delay = retryBackoffMs << Math.min(attempts - 1, 30);
+        if (delay <= 0 || delay > maxBackoffMs) delay = maxBackoffMs;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private String toJson(PenaltyCheckRequestDto check) {
+        try {
+            return json.writeValueAsString(check);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize penalty check for recordId=" + check.recordId, e);
+        }
+    }
+
+    private static String truncate(String s) {
+        if (s == null || s.length() <= MAX_ERROR_LENGTH) return s;
+        return s.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -0,0 +1,172 @@
+package org.example.camera.catalog.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * report/report.xsl, скомпилированный один раз в Templates (потокобезопасны). Transformer на запрос
+ * берётся из пула при Templates: он не потокобезопасен, но после reset() переиспользуется.
+ * hot-reload (dev): если ресурс — файл (target/classes) и он изменился, стиль перекомпилируется
+ * на следующем запросе; из jar ресурс не меняется и не проверяется.
+ * Ошибка в XSL при старте — IllegalStateException (приложение не поднимается); при hot-reload —
+ * TransformerConfigurationException из transform (500) до следующей правки файла: неудача запоминается
+ * по lastModified, и сломанный стиль не перекомпилируется на каждом запросе.
+ */
+@Service
+public class ReportStylesheet {
+
+    private static final String XSL_CLASSPATH = "report/report.xsl";
+    private static final int MAX_IDLE_TRANSFORMERS = 32;
+
+    private final TransformerFactory factory = TransformerFactory.newInstance();
+    private final boolean hotReload;
+
+    private volatile Compiled compiled;
+    private volatile Failure failed; // hot-reload: последняя неудачная компиляция
+
+    public ReportStylesheet(@Value("${app.report.hot-reload}") boolean hotReload) {
+        this.hotReload = hotReload;
+        try {
+            this.compiled = compile(); // ошибка в XSL — на старте, а не на первом отчёте
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException("report stylesheet: " + e.getMessage(), e);
+        }
+    }
+
+    /** Преобразование in → out; out может быть потоком ответа — результат не буферизуется. */
+    public void transform(Source in, Result out) throws TransformerException {
+        Compiled c = current();
+        Transformer t = c.borrow();
+        boolean reusable = false;
+        try {
+            t.transform(in, out);
+            reusable = true;
+        } finally {
+            if (reusable) c.release(t);
+        }
+    }
+
+    private Compiled current() throws TransformerConfigurationException {
+        Compiled c = compiled;
+        if (!hotReload || c.file == null) return c;
+        long modified = lastModified(c.file);
+        if (modified == c.lastModified) return c;
+        checkFailed(modified);
+        synchronized (this) {
+            c = compiled;
+            modified = lastModified(c.file);
+            if (modified == c.lastModified) return c;
+            checkFailed(modified);
+            try {
+                c = compile();
+            } catch (TransformerConfigurationException e) {
+                failed = new Failure(modified, e);
+                throw e;
+            }
+            compiled = c;
+            failed = null;
+            return c;
+        }
+    }
+
+    // файл не менялся с неудачной компиляции — та же ошибка без повторной компиляции
+    private void checkFailed(long modified) throws TransformerConfigurationException {
+        Failure f = failed;
+        if (f != null && f.lastModified == modified) {
+            throw new TransformerConfigurationException(f.error.getMessage(), f.error);
+        }
+    }
+
+    private Compiled compile() throws TransformerConfigurationException {
+        URL url = getClass().getClassLoader().getResource(XSL_CLASSPATH);
+        if (url == null) {
+            throw new TransformerConfigurationException("XSL not found: " + XSL_CLASSPATH);
+        }
+        Path file = asFile(url);
+        long modified = (file != null) ? lastModified(file) : 0;
+
+        try (InputStream xsl = url.openStream()) {
+            // systemId — чтобы xsl:include/xsl:import разрешались относительно report.xsl
+            Templates templates = factory.newTemplates(new StreamSource(xsl, url.toExternalForm()));
+            return new Compiled(templates, file, modified);
+        } catch (IOException e) {
+            throw new TransformerConfigurationException("XSL read error: " + e.getMessage(), e);
+        }
+    }
+
+    private static Path asFile(URL url) {
+        if (!"file".equals(url.getProtocol())) return null;
+        try {
+            return Path.of(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1; // файл пропал (пересборка) — перекомпилируем, когда появится
+        }
+    }
+
+    private static final class Failure {
+        final long lastModified;
+        final TransformerConfigurationException error;
+
+        Failure(long lastModified, TransformerConfigurationException error) {
+            this.lastModified = lastModified;
+            this.error = error;
+        }
+    }
+
+    private static final class Compiled {
+        final Templates templates;
+        final Path file;
+        final long lastModified;
+
+        private final Queue<Transformer> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        Compiled(Templates templates, Path file, long lastModified) {
+            this.templates = templates;
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+
+        Transformer borrow() throws TransformerConfigurationException {
+            Transformer t = idle.poll();
+            if (t == null) return templates.newTransformer();
+            idleCount.decrementAndGet();
+            return t;
+        }
+
+        void release(Transformer t) {
+            t.reset();
+            if (idleCount.incrementAndGet() > MAX_IDLE_TRANSFORMERS) {
+                idleCount.decrementAndGet();
+                return;
+            }
+            idle.offer(t);
+        }
+    }
+}
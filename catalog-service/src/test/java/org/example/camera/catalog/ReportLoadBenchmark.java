@@ -0,0 +1,103 @@
+package org.example.camera.catalog;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пропускная способность GET /api/catalog/reports/{recordId}.html (не тест — surefire его не запускает):
+ * requests запросов одного отчёта с concurrency клиентов, итог — запросов/с и задержки.
+ * Сравнение до/после — два прогона против catalog-service, собранного из разных ревизий;
+ * запись и rules.xml должны быть в каталоге заранее (иначе 404/412 — они видны в outcomes).
+ * Запуск после mvn test-compile:
+ *   java -cp catalog-service/target/test-classes \
+ *        org.example.camera.catalog.ReportLoadBenchmark <recordId> [concurrency=16] [requests=20000] [baseUrl]
+ */
+public class ReportLoadBenchmark {
+
+    private static final int WARMUP_REQUESTS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: ReportLoadBenchmark <recordId> [concurrency] [requests] [baseUrl]");
+            System.exit(2);
+        }
+        String recordId = args[0];
+        int concurrency = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        int requests = (args.length > 2) ? Integer.parseInt(args[2]) : 20000;
+        String baseUrl = (args.length > 3) ? args[3] : "http://localhost:8082";
+
+        URI uri = URI.create(baseUrl + "/api/catalog/reports/"
+                + URLEncoder.encode(recordId, StandardCharsets.UTF_8).replace("+", "%20") + ".html");
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+
+        // прогрев: JIT и keep-alive соединения, в замер не входит
+        run(http, uri, clients, WARMUP_REQUESTS, new long[WARMUP_REQUESTS], new ConcurrentHashMap<>());
+
+        long[] latencyUs = new long[requests];
+        Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+        long wallMs = run(http, uri, clients, requests, latencyUs, outcomes);
+        clients.shutdown();
+
+        Arrays.sort(latencyUs);
+        System.out.printf("requests=%d concurrency=%d wall=%d ms throughput=%.1f req/s%n",
+                requests, concurrency, wallMs, requests * 1000.0 / wallMs);
+        System.out.printf("latency ms: p50=%.2f p95=%.2f p99=%.2f max=%.2f%n",
+                pct(latencyUs, 50) / 1000.0, pct(latencyUs, 95) / 1000.0, pct(latencyUs, 99) / 1000.0,
+                latencyUs[requests - 1] / 1000.0);
+        System.out.println("outcomes: " + new TreeMap<>(outcomes));
+    }
+
+    private static long run(HttpClient http, URI uri, ExecutorService clients, int requests,
+                            long[] latencyUs, Map<String, AtomicLong> outcomes) throws Exception {
+        HttpRequest req = HttpRequest.newBuilder(uri).GET().build();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            int n = i;
+            futures.add(clients.submit(() -> {
+                start.await();
+                long t0 = System.nanoTime();
+                String outcome;
+                try {
+                    outcome = String.valueOf(http.send(req, HttpResponse.BodyHandlers.discarding()).statusCode());
+                } catch (IOException e) {
+                    outcome = e.getClass().getSimpleName();
+                }
+                latencyUs[n] = (System.nanoTime() - t0) / 1000;
+                outcomes.computeIfAbsent(outcome, k -> new AtomicLong()).incrementAndGet();
+                return null;
+            }));
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) f.get();
+        return Math.max(1, (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    private static long pct(long[] sorted, int p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
@@ -0,0 +1,159 @@
+package org.example.camera.catalog.service;
+
+import org.example.camera.catalog.CatalogApplication;
+import org.example.camera.catalog.config.ThreadingConfig;
+import org.example.camera.catalog.db.CatalogRecordEntity;
+import org.example.camera.catalog.db.CatalogRecordRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * SQL-план CatalogXpathPlanner против DOM-прохода CatalogXpathScanner на одних и тех же записях:
+ * для каждого выражения, которое планировщик переводит, списки recordId должны совпасть.
+ * Среди записей — числа, которые String.valueOf пишет экспонентой (XPath видит NaN), и пустые поля.
+ */
+@DataJpaTest
+@ContextConfiguration(classes = CatalogApplication.class) // в пакете два @SpringBootApplication
+@Import({CatalogXpathPlanner.class, CatalogXpathScanner.class, ThreadingConfig.class})
+class CatalogXpathPlannerTest {
+
+    @Autowired
+    private CatalogRecordRepository records;
+
+    @Autowired
+    private CatalogXpathPlanner planner;
+
+    @Autowired
+    private CatalogXpathScanner scanner;
+
+    @BeforeEach
+    void seed() {
+        records.saveAll(List.of(
+                record("edge", "zero.jpg", 0, 55.5, "PENALTY_DECIDED", "NO_VIOLATION", "", 0, false),
+                record("edge", "tiny.jpg", 0.0001, -12.25, "PENALTY_DECIDED", "VIOLATION", "SPEED_20", 500, false),
+                record("edge", "half.jpg", 0.4, 10, "SENT_TO_PENALTY", null, null, 0, false),
+                record("edge", "neg.jpg", -5, -80, "PENALTY_FAILED", null, null, 0, false),
+                record("edge", "huge.jpg", 1e8, 0, "PENALTY_DECIDED", "VIOLATION", "SPEED_40", 1e7, true),
+                record("edge", "hundred.jpg", 100, 30, "PENALTY_DECIDED", "REVIEW", "SPEED_20", 5000, true),
+                record("part", "r25_a.jpg", 125, 45, "PENALTY_DECIDED", "VIOLATION", "SPEED_40", 7500, false),
+                record("part", "r26.jpg", 160.5, 45, "PENALTY_DECIDED", "VIOLATION", "SPEED_60", 12000, false),
+                record("part", "slow.jpg", 91, 45, "SENT_TO_PENALTY", "", "", 0, false),
+                record("soap", "s0001.jpg", 60, 20, "PENALTY_DECIDED", "NO_VIOLATION", null, 0, false),
+                record("soap", "s0002.jpg", 95, 20, "PENALTY_DECIDED", "VIOLATION", "SPEED_20", 500, false)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "/catalog/record[status='PENALTY_DECIDED']",
+            "//record[status!='PENALTY_DECIDED']",
+            "/catalog/record[sessionId='edge']",
+            "//record[sessionId='edge' and speedKmh > 90]",
+            "//record[sessionId='edge' and speedKmh >= 0]",
+            "//record[sessionId='edge' and speedKmh != 100]",
+            "//record[sessionId='edge' and speedKmh = 0]",
+            "//record[sessionId='edge' and 50 < speedKmh]",
+            "//record[sessionId='edge' and (speedKmh < 0.01 or speedKmh > 1000)]",
+            "//record[sessionId='edge' and speedKmh <= -1]",
+            "//record[sessionId='edge' and speedKmh = -5]",
+            "//record[sessionId='edge' and speedKmh < .5]",
+            "//record[latitude < -10]",
+            "//record[amount >= 5000 or confidence < 0.5]",
+            "//record[amount != 500]",
+            "/catalog/record[speedKmh > 120][sessionId='part']",
+            "/catalog/record[speedKmh > 120]/recordId",
+            "/catalog/record/speedKmh > 150",
+            "//speedKmh > 150 and //status = 'PENALTY_DECIDED'",
+            "//record[contains(fileKey, 'r25')]",
+            "//record[starts-with(recordId, 'edge:')]",
+            "//record[contains(recordId, '_')]",
+            "//record[contains(decisionStatus, '')]",
+            "//record[decisionStatus='']",
+            "//record[decisionStatus!='']",
+            "//record[ruleCode != '']",
+            "//record[ruleCode = 'SPEED_20']",
+            "//record[requiresReview='true']",
+            "//record[requiresReview!='true']",
+            "//record[requiresReview='yes']",
+            "//record[./status = \"PENALTY_DECIDED\" and amount > 0]",
+            "/catalog/record",
+            "//record[sessionId='soap' and (fileKey='s0001.jpg' or fileKey='s0002.jpg')]",
+            "//record[takenAt = '2026-02-01T10:00:00Z']",
+    })
+    void planMatchesDomScan(String xpath) throws IOException {
+        assertNotNull(planner.plan(xpath), "planner should translate " + xpath);
+        assertEquals(scan(xpath), planner.search(xpath), xpath);
+    }
+
+    // "." — узел контекста, не число: такие выражения остаются DOM-проходу, а не падают 500
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "//record[speedKmh > .]",
+            "/catalog/record/speedKmh = .",
+            "//record[. = speedKmh]",
+            "//record[takenAt >= '2026']",
+            "//record[evidenceXml = '']",
+    })
+    void untranslatableFallsBackToScan(String xpath) throws IOException {
+        assertNull(planner.plan(xpath), xpath);
+        scan(xpath); // DOM-проход их вычисляет
+    }
+
+    // экспоненты в XPath 1.0 нет — выражение не переводится, DOM-проход отвечает 400
+    @Test
+    void exponentLiteralIsNotTranslated() {
+        assertNull(planner.plan("//record[speedKmh < 1e0]"));
+    }
+
+    @Test
+    void emptyAndNullFieldsAreTheSameForXpath() throws IOException {
+        List<String> empty = planner.search("//record[ruleCode='']");
+        assertEquals(List.of("edge:half.jpg", "edge:neg.jpg", "edge:zero.jpg", "part:slow.jpg", "soap:s0001.jpg"), empty);
+        assertEquals(scan("//record[ruleCode='']"), empty);
+    }
+
+    private List<String> scan(String xpath) throws IOException {
+        List<String> out = new ArrayList<>();
+        scanner.scan(xpath, null, 0, out::add);
+        return out;
+    }
+
+    private static CatalogRecordEntity record(String session, String fileKey, double speed, double latitude, String status,
+                                              String decision, String ruleCode, double amount, boolean review) {
+        CatalogRecordEntity rec = new CatalogRecordEntity(session + ":" + fileKey);
+        rec.setSessionId(session);
+        rec.setFileKey(fileKey);
+        rec.setDroneId("DRONE-001");
+        rec.setOperatorId("OP-001");
+        rec.setTakenAt("2026-02-01T10:00:00Z");
+        rec.setLatitude(latitude);
+        rec.setLongitude(37.6);
+        rec.setAltitude(100);
+        rec.setSpeedKmh(speed);
+        rec.setDistanceMeters(25);
+        rec.setConfidence(speed == 0 ? 0.0001 : 0.9);
+        rec.setStatus(status);
+        rec.setPenaltyDecisionStatus(decision);
+        rec.setPenaltyRuleCode(ruleCode);
+        rec.setPenaltyAmount(amount);
+        rec.setPenaltyRequiresReview(review);
+        Instant now = Instant.parse("2026-02-01T12:00:00Z");
+        rec.setCreatedAt(now);
+        rec.setUpdatedAt(now);
+        return rec;
+    }
+}
@@ -0,0 +1,37 @@
+package org.example.camera.common.concurrent;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фабрики потоков для собственных пулов сервиса: платформенные daemon-потоки или виртуальные
+ * (профиль virtual-threads на Java 21). Пулы остаются ThreadPoolExecutor с теми же лимитами и очередями —
+ * меняется только то, на чём выполняются задачи, ограничения параллелизма сохраняются.
+ */
+public final class WorkerThreads {
+
+    private final boolean virtual;
+
+    public WorkerThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /** Потоки с именами namePrefix + номер. */
+    public ThreadFactory factory(String namePrefix) {
+        if (virtual) {
+            return new VirtualThreadTaskExecutor(namePrefix).getVirtualThreadFactory();
+        }
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, namePrefix + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package org.example.camera.common.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AnalysisResultPageDto {
+    public String sessionId;
+
+    // результаты по возрастанию fileKey
+    public List<AnalysisResultDto> items = new ArrayList<>();
+
+    // fileKey для следующего запроса (?after=); null — страница последняя
+    public String nextAfter;
+}
@@ -1,7 +1,11 @@
 package org.example.camera.common.dto;
 
 public class CatalogImportResponseDto {
-    public String status;
+    public String status;          // IMPORTED
     public String sessionId;
     public int photosImported;
+
+    // сколько записей поставлено в очередь проверки penalty (остальные уже решены);
+    // решения появятся в записях каталога по мере отправки — GET /api/catalog/penalty-outbox
+    public int penaltyQueued;
 }
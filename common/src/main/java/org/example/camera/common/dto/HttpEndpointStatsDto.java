@@ -0,0 +1,24 @@
+package org.example.camera.common.dto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class HttpEndpointStatsDto {
+    public String target;          // имя целевого сервиса (penalty, catalog)
+    public String method;
+    public String path;
+
+    public long calls;
+    public long errors;            // исключение или 5xx после всех попыток
+    public long retries;           // повторные попытки сверх первой
+
+    // время вызова целиком (с повторами), мс; перцентили — верхняя граница бакета
+    public double meanMs;
+    public long maxMs;
+    public long p50Ms;
+    public long p95Ms;
+    public long p99Ms;
+
+    // верхняя граница бакета в мс ("+Inf" — всё, что дольше) → число вызовов
+    public Map<String, Long> histogram = new LinkedHashMap<>();
+}
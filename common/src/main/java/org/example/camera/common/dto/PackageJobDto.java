@@ -0,0 +1,33 @@
+package org.example.camera.common.dto;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PackageJobDto {
+    public String jobId;
+    public String sessionId;
+
+    // QUEUED | RUNNING | SUCCEEDED | FAILED
+    public String state;
+    public String sessionStatus;   // последний статус сессии (PACKAGE_VALIDATED … CATALOG_SENT)
+
+    public String submittedAt;     // ISO-8601 строка
+    public String startedAt;
+    public String finishedAt;
+
+    public String packageChecksum;
+    public Integer photos;         // заполняется после успешной обработки
+
+    // fileKey, совпавшие с несколькими файлами пакета (по basename/суффиксу пути)
+    public Map<String, List<String>> ambiguousFileKeys = new LinkedHashMap<>();
+
+    // пакет уже был обработан в этой сессии — итог взят из индекса по checksum
+    public String duplicateOfSessionId;
+
+    public Integer errorStatus;    // HTTP-статус, который вернул бы синхронный вызов
+    public String errorMessage;
+
+    public List<PackageJobStageDto> stages = new ArrayList<>();
+}
@@ -0,0 +1,7 @@
+package org.example.camera.common.dto;
+
+public class PackageJobStageDto {
+    public String stage;
+    public String completedAt;     // ISO-8601 строка
+    public long durationMs;        // от завершения предыдущего этапа
+}
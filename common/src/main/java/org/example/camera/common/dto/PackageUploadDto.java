@@ -0,0 +1,20 @@
+package org.example.camera.common.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PackageUploadDto {
+    public String uploadId;
+    public String sessionId;
+
+    public long size;              // заявленный размер пакета, байт
+    public long receivedBytes;
+
+    // недостающие диапазоны "first-last" (включительно, как в Content-Range)
+    public List<String> missingRanges = new ArrayList<>();
+    public boolean complete;
+    public String sha256;          // когда получены все байты
+
+    public String createdAt;       // ISO-8601 строка
+    public String expiresAt;       // без новых данных загрузка удаляется после этого момента
+}
@@ -0,0 +1,11 @@
+package org.example.camera.common.dto;
+
+public class PenaltyOutboxStatsDto {
+    public long pending;             // записи каталога, ждущие решения penalty
+    public long retrying;            // из них уже с неудачными попытками
+    public String oldestCreatedAt;   // ISO-8601; null — outbox пуст
+
+    // последняя ошибка отправки (для диагностики, пока задание не доставлено)
+    public String lastErrorRecordId;
+    public String lastError;
+}
@@ -0,0 +1,67 @@
+package org.example.camera.common.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Настройки межсервисного HTTP-клиента (в сервисах биндятся из app.http.*).
+ * Таймауты и повторы общие, размер пула соединений — на каждый целевой сервис.
+ */
+public class HttpClientSettings {
+
+    private int connectTimeoutMs = 2000;
+    private int readTimeoutMs = 10000;
+    // общий бюджет вызова вместе с повторами и ожиданием соединения из пула
+    private int deadlineMs = 30000;
+    private int maxAttempts = 3;
+    private int retryBackoffMs = 100;
+    private int maxConnections = 16;
+    private Map<String, Target> targets = new LinkedHashMap<>();
+
+    public int getConnectTimeoutMs() { return connectTimeoutMs; }
+    public void setConnectTimeoutMs(int connectTimeoutMs) { this.connectTimeoutMs = connectTimeoutMs; }
+
+    public int getReadTimeoutMs() { return readTimeoutMs; }
+    public void setReadTimeoutMs(int readTimeoutMs) { this.readTimeoutMs = readTimeoutMs; }
+
+    public int getDeadlineMs() { return deadlineMs; }
+    public void setDeadlineMs(int deadlineMs) { this.deadlineMs = deadlineMs; }
+
+    public int getMaxAttempts() { return maxAttempts; }
+    public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+    public int getRetryBackoffMs() { return retryBackoffMs; }
+    public void setRetryBackoffMs(int retryBackoffMs) { this.retryBackoffMs = retryBackoffMs; }
+
+    public int getMaxConnections() { return maxConnections; }
+    public void setMaxConnections(int maxConnections) { this.maxConnections = maxConnections; }
+
+    public Map<String, Target> getTargets() { return targets; }
+    public void setTargets(Map<String, Target> targets) { this.targets = targets; }
+
+    int maxConnections(String target) {
+        Target t = targets.get(target);
+        return (t != null && t.getMaxConnections() != null) ? t.getMaxConnections() : maxConnections;
+    }
+
+    void validate() {
+        if (connectTimeoutMs <= 0) throw new IllegalStateException("app.http.connect-timeout-ms must be > 0");
+        if (readTimeoutMs <= 0) throw new IllegalStateException("app.http.read-timeout-ms must be > 0");
+        if (deadlineMs <= 0) throw new IllegalStateException("app.http.deadline-ms must be > 0");
+        if (maxAttempts < 1) throw new IllegalStateException("app.http.max-attempts must be >= 1");
+        if (retryBackoffMs < 0) throw new IllegalStateException("app.http.retry-backoff-ms must be >= 0");
+        if (maxConnections < 1) throw new IllegalStateException("app.http.max-connections must be >= 1");
+        targets.forEach((name, t) -> {
+            if (t.getMaxConnections() != null && t.getMaxConnections() < 1) {
+                throw new IllegalStateException("app.http.targets." + name + ".max-connections must be >= 1");
+            }
+        });
+    }
+
+    public static class Target {
+        private Integer maxConnections; // null = общий max-connections
+
+        public Integer getMaxConnections() { return maxConnections; }
+        public void setMaxConnections(Integer maxConnections) { this.maxConnections = maxConnections; }
+    }
+}
@@ -0,0 +1,68 @@
+package org.example.camera.common.http;
+
+import org.example.camera.common.dto.HttpEndpointStatsDto;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Общий клиент для вызовов между сервисами. На каждый целевой сервис — свой пул keep-alive соединений
+ * (java.net.http.HttpClient) с ограничением числа одновременных соединений; у каждого вызова — таймауты
+ * соединения и чтения и общий deadline; повторы с jitter — только для идемпотентных вызовов.
+ * Длительности вызовов копятся в гистограммах по endpoint (target + метод + путь).
+ */
+public class InterServiceHttpClient {
+
+    private final HttpClientSettings settings;
+    private final Map<String, TargetPool> pools = new ConcurrentHashMap<>();
+    private final Map<String, RestTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public InterServiceHttpClient(HttpClientSettings settings) {
+        settings.validate();
+        this.settings = settings;
+    }
+
+    /** RestTemplate для target; повторяются только методы, идемпотентные по HTTP (GET, HEAD, PUT, DELETE, OPTIONS). */
+    public RestTemplate rest(String target) {
+        return templates.computeIfAbsent(target, t -> newTemplate(t, false));
+    }
+
+    /** То же, но повторяется любой метод: для POST, которые на стороне получателя — upsert по ключу записи. */
+    public RestTemplate idempotentRest(String target) {
+        return templates.computeIfAbsent(target + "#idempotent", t -> newTemplate(target, true));
+    }
+
+    public List<HttpEndpointStatsDto> stats() {
+        List<String> keys = new ArrayList<>(histograms.keySet());
+        keys.sort(null);
+        List<HttpEndpointStatsDto> out = new ArrayList<>(keys.size());
+        for (String k : keys) out.add(histograms.get(k).snapshot());
+        return out;
+    }
+
+    private RestTemplate newTemplate(String target, boolean retryAnyMethod) {
+        TargetPool pool = pools.computeIfAbsent(target, this::newPool);
+        return new RestTemplate(new PooledClientHttpRequestFactory(target, pool, settings, retryAnyMethod,
+                (method, path) -> histograms.computeIfAbsent(target + " " + method + " " + path,
+                        k -> new LatencyHistogram(target, method, path))));
+    }
+
+    private TargetPool newPool(String target) {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(settings.getConnectTimeoutMs()))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        return new TargetPool(target, client, new Semaphore(settings.maxConnections(target), true));
+    }
+
+    // JDK-клиент открывает новое соединение, только если все занятые; семафор ограничивает их число
+    record TargetPool(String target, HttpClient client, Semaphore connections) { }
+}
@@ -0,0 +1,82 @@
+package org.example.camera.common.http;
+
+import org.example.camera.common.dto.HttpEndpointStatsDto;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей вызовов одного endpoint: фиксированные бакеты, запись без блокировок.
+ */
+final class LatencyHistogram {
+
+    private static final long[] BOUNDS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final String target;
+    private final String method;
+    private final String path;
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MS.length + 1];
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder totalMs = new LongAdder();
+    private final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram(String target, String method, String path) {
+        this.target = target;
+        this.method = method;
+        this.path = path;
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    void record(long elapsedMs, int attempts, boolean failed) {
+        int i = 0;
+        while (i < BOUNDS_MS.length && elapsedMs > BOUNDS_MS[i]) i++;
+        buckets[i].increment();
+
+        calls.increment();
+        totalMs.add(elapsedMs);
+        maxMs.accumulate(elapsedMs);
+        if (attempts > 1) retries.add(attempts - 1);
+        if (failed) errors.increment();
+    }
+
+    HttpEndpointStatsDto snapshot() {
+        long[] counts = new long[buckets.length];
+        long n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+
+        HttpEndpointStatsDto dto = new HttpEndpointStatsDto();
+        dto.target = target;
+        dto.method = method;
+        dto.path = path;
+        dto.calls = n;
+        dto.errors = errors.sum();
+        dto.retries = retries.sum();
+        dto.maxMs = maxMs.get();
+        dto.meanMs = (n == 0) ? 0.0 : (double) totalMs.sum() / n;
+        dto.p50Ms = percentile(counts, n, 0.50, dto.maxMs);
+        dto.p95Ms = percentile(counts, n, 0.95, dto.maxMs);
+        dto.p99Ms = percentile(counts, n, 0.99, dto.maxMs);
+
+        for (int i = 0; i < counts.length; i++) {
+            dto.histogram.put(i < BOUNDS_MS.length ? Long.toString(BOUNDS_MS[i]) : "+Inf", counts[i]);
+        }
+        return dto;
+    }
+
+    private static long percentile(long[] counts, long n, double q, long max) {
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return (i < BOUNDS_MS.length) ? Math.min(BOUNDS_MS[i], max) : max;
+        }
+        return max;
+    }
+}
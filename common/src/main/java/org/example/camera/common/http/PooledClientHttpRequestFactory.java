@@ -0,0 +1,225 @@
+package org.example.camera.common.http;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+/**
+ * Запрос RestTemplate → java.net.http с пулом соединений target. Тело буферизуется, поэтому
+ * попытку можно повторить: при IOException (нет соединения, таймаут) и 502/503/504 — если вызов идемпотентный
+ * и до deadline хватает времени на паузу (full jitter от retry-backoff-ms, удваивается с каждой попыткой).
+ * Ответ тоже читается целиком внутри deadline: медленное тело после быстрых заголовков обрывается
+ * по тому же сроку, а не держит поток и соединение сколько угодно.
+ */
+final class PooledClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    private static final Set<HttpMethod> IDEMPOTENT_METHODS =
+            Set.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.OPTIONS);
+    private static final Set<Integer> RETRY_STATUSES = Set.of(502, 503, 504);
+    // заголовки, которые java.net.http выставляет сам
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final String target;
+    private final InterServiceHttpClient.TargetPool pool;
+    private final HttpClientSettings settings;
+    private final boolean retryAnyMethod;
+    private final BiFunction<String, String, LatencyHistogram> histograms;
+
+    PooledClientHttpRequestFactory(String target, InterServiceHttpClient.TargetPool pool, HttpClientSettings settings,
+                                   boolean retryAnyMethod, BiFunction<String, String, LatencyHistogram> histograms) {
+        this.target = target;
+        this.pool = pool;
+        this.settings = settings;
+        this.retryAnyMethod = retryAnyMethod;
+        this.histograms = histograms;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new Request(uri, httpMethod);
+    }
+
+    private ClientHttpResponse call(HttpMethod method, URI uri, HttpHeaders headers, byte[] body) throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(settings.getDeadlineMs());
+        int maxAttempts = (retryAnyMethod || IDEMPOTENT_METHODS.contains(method)) ? settings.getMaxAttempts() : 1;
+        LatencyHistogram histogram = histograms.apply(method.name(), uri.getPath());
+
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            Response response;
+            try {
+                response = send(method, uri, headers, body, deadline);
+            } catch (IOException ex) {
+                if (attempt < maxAttempts && !Thread.currentThread().isInterrupted() && backoff(attempt, deadline)) continue;
+                histogram.record(elapsedMs(start), attempt, true);
+                throw ex;
+            }
+
+            int status = response.raw.statusCode();
+            if (attempt < maxAttempts && RETRY_STATUSES.contains(status) && backoff(attempt, deadline)) continue;
+            histogram.record(elapsedMs(start), attempt, status >= 500);
+            return response;
+        }
+    }
+
+    private Response send(HttpMethod method, URI uri, HttpHeaders headers, byte[] body, long deadline) throws IOException {
+        long remaining = deadline - System.nanoTime();
+        try {
+            if (remaining <= 0 || !pool.connections().tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                throw new HttpTimeoutException("no free connection to " + target + " before deadline");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for connection to " + target);
+        }
+
+        try {
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) throw new HttpTimeoutException("deadline exceeded calling " + target);
+
+            HttpRequest.Builder b = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(settings.getReadTimeoutMs()))))
+                    .method(method.name(), body.length == 0
+                            ? HttpRequest.BodyPublishers.noBody()
+                            : HttpRequest.BodyPublishers.ofByteArray(body));
+            headers.forEach((name, values) -> {
+                if (RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) return;
+                for (String v : values) b.header(name, v);
+            });
+
+            // timeout запроса ограничивает только ожидание заголовков — тело ждём не дольше остатка deadline
+            CompletableFuture<HttpResponse<byte[]>> exchange =
+                    pool.client().sendAsync(b.build(), HttpResponse.BodyHandlers.ofByteArray());
+            return new Response(await(exchange, deadline));
+        } finally {
+            // тело прочитано целиком (или обмен отменён) — соединение свободно
+            pool.connections().release();
+        }
+    }
+
+    private HttpResponse<byte[]> await(CompletableFuture<HttpResponse<byte[]>> exchange, long deadline) throws IOException {
+        try {
+            return exchange.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            exchange.cancel(true); // обрывает обмен и закрывает соединение
+            throw new HttpTimeoutException("deadline exceeded reading response from " + target);
+        } catch (InterruptedException e) {
+            exchange.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while calling " + target);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException("calling " + target + " failed: " + cause, cause);
+        }
+    }
+
+    private boolean backoff(int attempt, long deadline) {
+        long capMs = (long) settings.getRetryBackoffMs() << Math.min(attempt - 1, 16);
+        long sleepMs = (capMs > 0) ? ThreadLocalRandom.current().nextLong(capMs + 1) : 0;
+        if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sleepMs) >= deadline) return false;
+        try {
+            Thread.sleep(sleepMs);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private final class Request extends AbstractClientHttpRequest {
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        Request(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override public HttpMethod getMethod() { return method; }
+        @Override public URI getURI() { return uri; }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            return call(method, uri, headers, body.toByteArray());
+        }
+    }
+
+    private static final class Response implements ClientHttpResponse {
+        final HttpResponse<byte[]> raw;
+        private HttpHeaders headers;
+
+        Response(HttpResponse<byte[]> raw) {
+            this.raw = raw;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(raw.statusCode());
+        }
+
+        @Override
+        public String getStatusText() {
+            HttpStatus s = HttpStatus.resolve(raw.statusCode());
+            return (s != null) ? s.getReasonPhrase() : "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                HttpHeaders h = new HttpHeaders();
+                raw.headers().map().forEach(h::addAll);
+                headers = h;
+            }
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(raw.body());
+        }
+
+        // тело уже в памяти, соединение вернулось в пул при чтении
+        @Override
+        public void close() {
+        }
+    }
+}
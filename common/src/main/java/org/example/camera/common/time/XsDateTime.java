@@ -0,0 +1,184 @@
+package org.example.camera.common.time;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * xs:dateTime ↔ epoch millis без промежуточных объектов.
+ * Быстрый путь — каноническая форма из manifest: yyyy-MM-ddTHH:mm:ss[.f{1,9}](Z|±hh:mm).
+ * Всё остальное (секунда 60, смещение с секундами, другие регистры и т.п.) разбирает JDK —
+ * набор допустимых строк и значения те же, что у Instant.parse с запасным OffsetDateTime.parse.
+ */
+public final class XsDateTime {
+
+    private static final long DAYS_0000_TO_1970 = 719528L;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long MIN_FAST_EPOCH_DAY = -DAYS_0000_TO_1970 + 60;
+    private static final long MAX_FAST_EPOCH_DAY = 2932896L;
+
+    private XsDateTime() {
+    }
+
+    /** Epoch millis (дробная часть секунды отбрасывается до миллисекунд, как Instant.toEpochMilli). */
+    public static long parseMillis(CharSequence s) {
+        long fast = parseCanonical(s);
+        if (fast != Long.MIN_VALUE) return fast;
+        return parseWithJdk(s.toString());
+    }
+
+    /** null для null, пустой и неразбираемой строки — для колонок рядом с исходным значением. */
+    public static Long toEpochMillisOrNull(String s) {
+        if (s == null || s.isBlank()) return null;
+        try {
+            return parseMillis(s);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    /** Та же строка, что Instant.ofEpochMilli(ms).toString(), для годов 0000..9999. */
+    public static String format(long epochMillis) {
+        return appendTo(new StringBuilder(24), epochMillis).toString();
+    }
+
+    public static StringBuilder appendTo(StringBuilder sb, long epochMillis) {
+        long epochDay = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(epochMillis, MILLIS_PER_DAY);
+        if (epochDay < MIN_FAST_EPOCH_DAY || epochDay > MAX_FAST_EPOCH_DAY) {
+            // за пределами 0000-03-01..9999-12-31 — формат JDK (знак, расширенный год)
+            return sb.append(Instant.ofEpochMilli(epochMillis));
+        }
+
+        // LocalDate.ofEpochDay без объекта: март — первый месяц «года», февраль последний
+        long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;
+        long yearEst = (400 * zeroDay + 591) / 146097;
+        long doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+        if (doyEst < 0) {
+            yearEst--;
+            doyEst = zeroDay - (365 * yearEst + yearEst / 4 - yearEst / 100 + yearEst / 400);
+        }
+        int marchDoy0 = (int) doyEst;
+        int marchMonth0 = (marchDoy0 * 5 + 2) / 153;
+        int month = (marchMonth0 + 2) % 12 + 1;
+        int day = marchDoy0 - (marchMonth0 * 306 + 5) / 10 + 1;
+        int year = (int) (yearEst + marchMonth0 / 10);
+
+        int secondOfDay = millisOfDay / 1000;
+        int millis = millisOfDay % 1000;
+
+        pad(sb, year, 4).append('-');
+        pad(sb, month, 2).append('-');
+        pad(sb, day, 2).append('T');
+        pad(sb, secondOfDay / 3600, 2).append(':');
+        pad(sb, secondOfDay / 60 % 60, 2).append(':');
+        pad(sb, secondOfDay % 60, 2);
+        if (millis != 0) pad(sb.append('.'), millis, 3);
+        return sb.append('Z');
+    }
+
+    // Long.MIN_VALUE — строка не в канонической форме (не обязательно ошибочна)
+    private static long parseCanonical(CharSequence s) {
+        int len = s.length();
+        if (len < 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) return Long.MIN_VALUE;
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+
+        int pos = 19;
+        int millis = 0;
+        if (s.charAt(pos) == '.') {
+            int start = ++pos;
+            while (pos < len && pos - start < 9 && isDigit(s.charAt(pos))) {
+                if (pos - start < 3) millis = millis * 10 + (s.charAt(pos) - '0');
+                pos++;
+            }
+            int n = pos - start;
+            if (n == 0) return Long.MIN_VALUE;
+            for (int i = n; i < 3; i++) millis *= 10;
+        }
+
+        if (pos >= len) return Long.MIN_VALUE;
+        int offsetSeconds;
+        char z = s.charAt(pos);
+        if (z == 'Z') {
+            if (pos + 1 != len) return Long.MIN_VALUE;
+            offsetSeconds = 0;
+        } else if ((z == '+' || z == '-') && pos + 6 == len && s.charAt(pos + 3) == ':') {
+            int oh = digits(s, pos + 1, 2);
+            int om = digits(s, pos + 4, 2);
+            if (oh < 0 || om < 0 || om > 59 || oh > 18 || (oh == 18 && om != 0)) return Long.MIN_VALUE;
+            offsetSeconds = (oh * 3600 + om * 60) * (z == '-' ? -1 : 1);
+        } else {
+            return Long.MIN_VALUE;
+        }
+
+        long epochSecond = epochDay(year, month, day) * 86400L
+                + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return epochSecond * 1000L + millis;
+    }
+
+    private static long parseWithJdk(String s) {
+        try {
+            return Instant.parse(s).toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            return OffsetDateTime.parse(s).toInstant().toEpochMilli();
+        }
+    }
+
+    // как LocalDate.toEpochDay для года 0..9999
+    private static long epochDay(int year, int month, int day) {
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) total--;
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> isLeapYear(year) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    // -1 — не цифры
+    private static int digits(CharSequence s, int from, int n) {
+        int v = 0;
+        for (int i = from; i < from + n; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static StringBuilder pad(StringBuilder sb, int value, int width) {
+        for (int p = (width == 4) ? 1000 : (width == 3) ? 100 : 10; p > 1 && value < p; p /= 10) sb.append('0');
+        return sb.append(value);
+    }
+}
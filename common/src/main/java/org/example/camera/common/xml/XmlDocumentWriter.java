@@ -0,0 +1,289 @@
+package org.example.camera.common.xml;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Потоковая запись XML-документов без промежуточного DOM: элементы пишутся сразу в Writer/OutputStream.
+ * Фабрика для вставляемых документов создаётся один раз и после настройки только читается;
+ * сам писатель не потокобезопасен, он живёт один документ.
+ * Вывод побайтно совпадает с прежней сериализацией DOM через Transformer (evidenceXml хранится строкой):
+ * то же объявление, элемент без содержимого — {@code <x/>}, атрибуты по имени, те же ссылки на символы.
+ * Поэтому сериализация своя, а не XMLStreamWriter — у того другие пустые элементы и экранирование атрибутов.
+ */
+public final class XmlDocumentWriter {
+
+    /** Содержимое документа для {@link #toXml}. */
+    @FunctionalInterface
+    public interface Content {
+        void writeTo(XmlDocumentWriter xml) throws XMLStreamException;
+    }
+
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    // вставляемые документы (rules.xml) — без DTD и внешних сущностей
+    private static final XMLInputFactory INPUT = newInputFactory();
+
+    private final Writer out;
+    private final ArrayDeque<String> open = new ArrayDeque<>();
+
+    // start-тег без '>': пока нет содержимого, элемент ещё может стать пустым <x/>;
+    // объявления и атрибуты — по имени, как их хранит DOM (xmlns раньше остальных, как писал Transformer)
+    private String pending;
+    private final Map<String, String> pendingNamespaces = new TreeMap<>();
+    private final Map<String, String> pendingAttributes = new TreeMap<>();
+
+    private XmlDocumentWriter(Writer out) throws XMLStreamException {
+        this.out = out;
+        write(DECLARATION);
+    }
+
+    /** Документ в Writer; после {@link #finish()} Writer остаётся открытым. */
+    public static XmlDocumentWriter open(Writer target) throws XMLStreamException {
+        return new XmlDocumentWriter(target);
+    }
+
+    /** Документ в поток байтов (UTF-8), например в тело ответа. */
+    public static XmlDocumentWriter open(OutputStream target) throws XMLStreamException {
+        return new XmlDocumentWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8));
+    }
+
+    /** Документ строкой — там, где XML хранится или передаётся значением (evidenceXml, SOAP). */
+    public static String toXml(Content content) throws XMLStreamException {
+        StringWriter sw = new StringWriter(1024);
+        XmlDocumentWriter xml = open(sw);
+        content.writeTo(xml);
+        xml.finish();
+        return sw.toString();
+    }
+
+    public XmlDocumentWriter start(String name) throws XMLStreamException {
+        closeStartTag();
+        pending = name;
+        open.push(name);
+        return this;
+    }
+
+    /** Атрибут открытого элемента; повтор имени заменяет значение, как setAttribute. */
+    public XmlDocumentWriter attribute(String name, String value) throws XMLStreamException {
+        if (pending == null) throw new XMLStreamException("attribute outside of a start tag: " + name);
+        if (name.equals("xmlns") || name.startsWith("xmlns:")) pendingNamespaces.put(name, value);
+        else pendingAttributes.put(name, value);
+        return this;
+    }
+
+    public XmlDocumentWriter end() throws XMLStreamException {
+        if (open.isEmpty()) throw new XMLStreamException("no open element");
+        String name = open.pop();
+        if (pending != null) {
+            writeStartTag("/>");
+        } else {
+            write("</");
+            write(name);
+            write(">");
+        }
+        return this;
+    }
+
+    /** Элемент с текстом; null и "" — пустой элемент, как setTextContent("") в DOM. */
+    public XmlDocumentWriter element(String name, String value) throws XMLStreamException {
+        start(name);
+        if (value != null) text(value);
+        return end();
+    }
+
+    /**
+     * Текст. Ссылки — как у Transformer: {@code & < >}, \r как {@code &#13;} (иначе при чтении он станет \n),
+     * символы вне BMP — числовой ссылкой. Одиночный суррогат — ошибка, Transformer на нём тоже падал.
+     * Пустая строка не добавляет содержимого: элемент остаётся пустым.
+     */
+    public XmlDocumentWriter text(String value) throws XMLStreamException {
+        if (value.isEmpty()) return this;
+        closeStartTag();
+        escape(value, false);
+        return this;
+    }
+
+    /**
+     * Корневой элемент другого документа — в текущую позицию, со всем содержимым (комментарии, PI, CDATA, пробелы),
+     * так же, как importNode + Transformer. Объявление и DOCTYPE вставляемого документа не переносятся; DTD не читается.
+     */
+    public XmlDocumentWriter copyOf(String xml) throws XMLStreamException {
+        XMLStreamReader in = INPUT.createXMLStreamReader(new StringReader(xml));
+        try {
+            int depth = 0;
+            while (in.hasNext()) {
+                int event = in.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        depth++;
+                        copyStartElement(in);
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        depth--;
+                        end();
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                        if (depth > 0) text(in.getText());
+                    }
+                    case XMLStreamConstants.CDATA -> {
+                        closeStartTag();
+                        write("<![CDATA[");
+                        write(in.getText());
+                        write("]]>");
+                    }
+                    case XMLStreamConstants.COMMENT -> {
+                        if (depth > 0) {
+                            closeStartTag();
+                            write("<!--");
+                            write(in.getText());
+                            write("-->");
+                        }
+                    }
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                        if (depth > 0) writePi(in);
+                    }
+                    default -> { } // объявление, DOCTYPE, конец документа
+                }
+            }
+            return this;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Закрыть незакрытые элементы и дописать буфер в цель; цель не закрывается. */
+    public void finish() throws XMLStreamException {
+        while (!open.isEmpty()) end();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    private void copyStartElement(XMLStreamReader in) throws XMLStreamException {
+        start(qualified(in.getPrefix(), in.getLocalName()));
+        for (int i = 0; i < in.getNamespaceCount(); i++) {
+            String p = in.getNamespacePrefix(i);
+            attribute((p == null || p.isEmpty()) ? "xmlns" : "xmlns:" + p, in.getNamespaceURI(i));
+        }
+        for (int i = 0; i < in.getAttributeCount(); i++) {
+            attribute(qualified(in.getAttributePrefix(i), in.getAttributeLocalName(i)), in.getAttributeValue(i));
+        }
+    }
+
+    private void writePi(XMLStreamReader in) throws XMLStreamException {
+        closeStartTag();
+        String data = in.getPIData();
+        write("<?");
+        write(in.getPITarget());
+        if (data != null && !data.isEmpty()) {
+            write(" ");
+            write(data);
+        }
+        write("?>");
+    }
+
+    private void closeStartTag() throws XMLStreamException {
+        if (pending != null) writeStartTag(">");
+    }
+
+    private void writeStartTag(String close) throws XMLStreamException {
+        write("<");
+        write(pending);
+        writeAttributes(pendingNamespaces);
+        writeAttributes(pendingAttributes);
+        write(close);
+        pending = null;
+        pendingNamespaces.clear();
+        pendingAttributes.clear();
+    }
+
+    private void writeAttributes(Map<String, String> attributes) throws XMLStreamException {
+        for (Map.Entry<String, String> a : attributes.entrySet()) {
+            write(" ");
+            write(a.getKey());
+            write("=\"");
+            escape(a.getValue(), true);
+            write("\"");
+        }
+    }
+
+    // управляющие символы — ссылками (в тексте и 0x7F-0x9F); в атрибуте ещё " и \t \n —
+    // иначе при чтении их нормализуют в пробел
+    private void escape(String value, boolean attribute) throws XMLStreamException {
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String ref;
+            switch (c) {
+                case '&' -> ref = "&amp;";
+                case '<' -> ref = "&lt;";
+                case '>' -> ref = "&gt;";
+                case '\r' -> ref = "&#13;";
+                case '"' -> ref = attribute ? "&quot;" : null;
+                case '\t' -> ref = attribute ? "&#9;" : null;
+                case '\n' -> ref = attribute ? "&#10;" : null;
+                default -> {
+                    if (c < 0x20 || (!attribute && c >= 0x7F && c <= 0x9F)) {
+                        ref = "&#" + (int) c + ";";
+                    } else if (!Character.isSurrogate(c)) {
+                        ref = null;
+                    } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        ref = "&#" + Character.toCodePoint(c, value.charAt(i + 1)) + ";";
+                    } else {
+                        throw new XMLStreamException("invalid UTF-16 surrogate: " + Integer.toHexString(c));
+                    }
+                }
+            }
+            if (ref == null) continue;
+            if (i > from) write(value, from, i);
+            write(ref);
+            if (Character.isHighSurrogate(c)) i++;
+            from = i + 1;
+        }
+        if (from < value.length()) write(value, from, value.length());
+    }
+
+    private void write(String s) throws XMLStreamException {
+        write(s, 0, s.length());
+    }
+
+    private void write(String s, int from, int to) throws XMLStreamException {
+        try {
+            out.write(s, from, to - from);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    private static String qualified(String prefix, String localName) {
+        return (prefix == null || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory f = XMLInputFactory.newFactory();
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        f.setProperty(XMLInputFactory.IS_COALESCING, false);
+        // JDK-реализация иначе отдаёт CDATA как обычный текст
+        if (f.isPropertySupported(REPORT_CDATA)) f.setProperty(REPORT_CDATA, true);
+        return f;
+    }
+}
@@ -0,0 +1,326 @@
+package org.example.camera.common.xml;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Общий реестр XML-контрактов: XSD компилируются один раз при загрузке класса,
+ * DTD manifest читается с classpath один раз и кешируется как грамматика Xerces.
+ * Schema потокобезопасна; Validator/XMLReader — нет, поэтому они выдаются из пулов.
+ */
+public final class XmlGrammarRegistry {
+
+    public enum Contract {
+        MANIFEST("contracts/manifest/manifest.xsd", "contracts/manifest/manifest.dtd"),
+        RULES("contracts/rules/rules.xsd", null),
+        CATALOG("contracts/catalog/catalog.xsd", null);
+
+        final String xsd;
+        final String dtd;
+
+        Contract(String xsd, String dtd) {
+            this.xsd = xsd;
+            this.dtd = dtd;
+        }
+
+        public String xsdPath() { return xsd; }
+        public String dtdPath() { return dtd; }
+    }
+
+    private static final String GRAMMAR_POOL_PROPERTY = "http://apache.org/xml/properties/internal/grammar-pool";
+    private static final int MAX_IDLE_PER_POOL = 32;
+
+    private static final ContentHandler NO_OP = new DefaultHandler();
+
+    private static final Map<Contract, Grammar> GRAMMARS = new EnumMap<>(Contract.class);
+
+    // XMLReader без загрузки внешних DTD/ENTITY — вход для XSD-валидации
+    private static final Pool<XMLReader> SECURE_READERS = new Pool<>(XmlGrammarRegistry::newSecureReader);
+
+    static {
+        for (Contract c : Contract.values()) {
+            GRAMMARS.put(c, new Grammar(c));
+        }
+    }
+
+    private XmlGrammarRegistry() {}
+
+    /** Скомпилированная (потокобезопасная) XSD-схема контракта. */
+    public static Schema schema(Contract contract) {
+        return grammar(contract).schema();
+    }
+
+    /** Содержимое DTD контракта (кеш с classpath). */
+    public static byte[] dtd(Contract contract) {
+        byte[] dtd = grammar(contract).dtd();
+        return dtd.clone();
+    }
+
+    /**
+     * XSD-валидация на пуловых Validator/XMLReader.
+     * handler == null — поведение Validator по умолчанию (ошибка → SAXParseException).
+     */
+    public static void validate(Contract contract, InputSource input, ErrorHandler handler) throws SAXException, IOException {
+        Grammar g = grammar(contract);
+        Validator validator = g.validators.borrow();
+        XMLReader reader = SECURE_READERS.borrow();
+        boolean reusable = false;
+        try {
+            validator.setErrorHandler(handler);
+            validator.validate(new SAXSource(reader, input));
+            reusable = true;
+        } finally {
+            if (reusable) {
+                validator.reset();
+                g.validators.release(validator);
+                SECURE_READERS.release(reader);
+            }
+        }
+    }
+
+    /**
+     * DTD-валидация: внешним разрешён только DTD самого контракта (из кеша), остальные сущности запрещены.
+     */
+    public static void validateDtd(Contract contract, InputSource input, ErrorHandler handler) throws SAXException, IOException {
+        Grammar g = grammar(contract);
+        if (g.dtdReaders == null) {
+            throw new XmlValidationException("DTD is not defined for contract: " + contract);
+        }
+
+        XMLReader reader = g.dtdReaders.borrow();
+        boolean reusable = false;
+        try {
+            reader.setErrorHandler(handler);
+            reader.parse(input);
+            reusable = true;
+        } finally {
+            if (reusable) g.dtdReaders.release(reader);
+        }
+    }
+
+    /**
+     * Один проход по документу: DTD-валидация в парсере (если validateDtd), XSD — в ValidatorHandler,
+     * провалидированные SAX-события уходят в contentHandler. Ошибки DTD и XSD приходят в разные обработчики;
+     * ошибки well-formedness парсер отдаёт в xsdErrors (как и раньше при отдельном XSD-проходе).
+     */
+    public static void parse(Contract contract, InputSource input, boolean validateDtd,
+                             ContentHandler contentHandler, ErrorHandler dtdErrors, ErrorHandler xsdErrors) throws SAXException, IOException {
+        Grammar g = grammar(contract);
+        Pool<XMLReader> readers = validateDtd ? g.dtdReaders : SECURE_READERS;
+        if (readers == null) {
+            throw new XmlValidationException("DTD is not defined for contract: " + contract);
+        }
+
+        XMLReader reader = readers.borrow();
+        ValidatorHandler vh = g.validatorHandlers.borrow();
+        boolean reusable = false;
+        try {
+            vh.setErrorHandler(xsdErrors);
+            vh.setContentHandler(contentHandler);
+
+            reader.setContentHandler(vh);
+            reader.setErrorHandler(new ErrorHandler() {
+                @Override public void warning(SAXParseException e) throws SAXException { if (dtdErrors != null) dtdErrors.warning(e); }
+                @Override public void error(SAXParseException e) throws SAXException { if (dtdErrors != null) dtdErrors.error(e); }
+                @Override public void fatalError(SAXParseException e) throws SAXException {
+                    if (xsdErrors != null) xsdErrors.fatalError(e);
+                    throw e;
+                }
+            });
+
+            reader.parse(input);
+            reusable = true;
+        } finally {
+            // не держим ссылки на обработчики вызывающего в пуле
+            vh.setContentHandler(null);
+            vh.setErrorHandler(null);
+            reader.setContentHandler(NO_OP);
+            reader.setErrorHandler(null);
+            if (reusable) {
+                g.validatorHandlers.release(vh);
+                readers.release(reader);
+            }
+        }
+    }
+
+    /** Namespace-aware XMLReader без загрузки внешних DTD/ENTITY (не пуловый, для собственных пайплайнов). */
+    public static XMLReader newSecureReader() {
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            trySetFeature(spf, "http://xml.org/sax/features/external-general-entities", false);
+            trySetFeature(spf, "http://xml.org/sax/features/external-parameter-entities", false);
+            trySetFeature(spf, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            return spf.newSAXParser().getXMLReader();
+        } catch (Exception e) {
+            throw new XmlValidationException("Cannot create SAX parser: " + e.getMessage(), e);
+        }
+    }
+
+    private static Grammar grammar(Contract contract) {
+        Grammar g = GRAMMARS.get(contract);
+        if (g.failure != null) throw g.failure;
+        return g;
+    }
+
+    private static final class Grammar {
+        final Contract contract;
+        final Schema schema;
+        final byte[] dtd;
+        final Object dtdGrammarPool;
+        final Pool<Validator> validators;
+        final Pool<ValidatorHandler> validatorHandlers;
+        final Pool<XMLReader> dtdReaders;
+        final XmlValidationException failure;
+
+        Grammar(Contract contract) {
+            this.contract = contract;
+
+            Schema s = null;
+            byte[] d = null;
+            XmlValidationException f = null;
+            try {
+                s = compileSchema(contract.xsd);
+                if (contract.dtd != null) d = readClasspath(contract.dtd, "DTD");
+            } catch (XmlValidationException e) {
+                f = e;
+            }
+
+            this.schema = s;
+            this.dtd = d;
+            this.failure = f;
+            this.dtdGrammarPool = (d != null) ? newGrammarPool() : null;
+
+            Schema compiled = s;
+            this.validators = new Pool<>(() -> compiled.newValidator());
+            this.validatorHandlers = new Pool<>(() -> compiled.newValidatorHandler());
+            this.dtdReaders = (d != null) ? new Pool<>(this::newDtdReader) : null;
+        }
+
+        Schema schema() { return schema; }
+
+        byte[] dtd() {
+            if (dtd == null) throw new XmlValidationException("DTD is not defined for contract: " + contract);
+            return dtd;
+        }
+
+        private XMLReader newDtdReader() {
+            try {
+                SAXParserFactory spf = SAXParserFactory.newInstance();
+                spf.setNamespaceAware(true);
+                spf.setValidating(true);
+
+                XMLReader reader = spf.newSAXParser().getXMLReader();
+                if (dtdGrammarPool != null) {
+                    try { reader.setProperty(GRAMMAR_POOL_PROPERTY, dtdGrammarPool); } catch (Exception ignored) {}
+                }
+
+                String dtdName = contract.dtd.substring(contract.dtd.lastIndexOf('/') + 1);
+                reader.setEntityResolver((publicId, systemId) -> {
+                    // Разрешаем ТОЛЬКО DTD контракта
+                    if (systemId != null && systemId.contains(dtdName)) {
+                        InputSource src = new InputSource(new ByteArrayInputStream(dtd));
+                        src.setPublicId(publicId);
+                        src.setSystemId(systemId);
+                        return src;
+                    }
+                    throw new SAXException("External entity is not allowed: " + systemId);
+                });
+                return reader;
+            } catch (Exception e) {
+                throw new XmlValidationException("Cannot create DTD validating parser: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static Schema compileSchema(String classpathXsd) {
+        byte[] xsd = readClasspath(classpathXsd, "XSD");
+        try {
+            SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            try {
+                sf.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+                sf.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+            } catch (Exception ignored) {
+                // некоторые реализации не поддерживают свойства — не критично
+            }
+            return sf.newSchema(new StreamSource(new ByteArrayInputStream(xsd)));
+        } catch (Exception e) {
+            throw new XmlValidationException("Cannot load XSD: " + classpathXsd + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] readClasspath(String path, String kind) {
+        try (InputStream is = XmlGrammarRegistry.class.getClassLoader().getResourceAsStream(path)) {
+            if (is == null) {
+                throw new XmlValidationException(kind + " not found on classpath: " + path);
+            }
+            return is.readAllBytes();
+        } catch (IOException e) {
+            throw new XmlValidationException("Cannot read " + kind + ": " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Xerces кеширует разобранный DTD в пуле грамматик; без Xerces работаем только на кеше байтов
+    private static Object newGrammarPool() {
+        try {
+            return Class.forName("org.apache.xerces.util.XMLGrammarPoolImpl").getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void trySetFeature(SAXParserFactory spf, String feature, boolean value) {
+        try {
+            spf.setFeature(feature, value);
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static final class Pool<T> {
+        private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private final Supplier<T> factory;
+
+        Pool(Supplier<T> factory) {
+            this.factory = factory;
+        }
+
+        T borrow() {
+            T t = idle.poll();
+            if (t == null) return factory.get();
+            idleCount.decrementAndGet();
+            return t;
+        }
+
+        void release(T t) {
+            if (idleCount.incrementAndGet() > MAX_IDLE_PER_POOL) {
+                idleCount.decrementAndGet();
+                return;
+            }
+            idle.offer(t);
+        }
+    }
+}
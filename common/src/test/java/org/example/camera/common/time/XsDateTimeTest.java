@@ -0,0 +1,150 @@
+package org.example.camera.common.time;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * XsDateTime против JDK: parseMillis — то же, что Instant.parse с запасным OffsetDateTime.parse,
+ * format — то же, что Instant.toString; и на быстром пути, и на строках, которые он отдаёт JDK.
+ */
+class XsDateTimeTest {
+
+    // min/max epoch millis для годов 0000..9999
+    private static final long MIN_MILLIS = Instant.parse("0000-01-01T00:00:00Z").toEpochMilli();
+    private static final long MAX_MILLIS = Instant.parse("9999-12-31T23:59:59.999Z").toEpochMilli();
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "2026-01-01T10:10:00Z",
+            "1970-01-01T00:00:00Z",
+            "1969-12-31T23:59:59Z",
+            "1969-12-31T23:59:59.5Z",
+            "2024-02-29T12:00:00Z",
+            "2000-02-29T23:59:59Z",
+            "1900-02-28T00:00:00Z",
+            "1900-03-01T00:00:00Z",
+            "2100-12-31T23:59:59Z",
+            "0000-01-01T00:00:00Z",
+            "0000-02-29T00:00:00Z",
+            "0000-03-01T00:00:00Z",
+            "9999-12-31T23:59:59Z",
+            "9999-12-31T23:59:59.999999999Z",
+            "2026-05-06T07:08:09.1Z",
+            "2026-05-06T07:08:09.12Z",
+            "2026-05-06T07:08:09.123Z",
+            "2026-05-06T07:08:09.1239Z",
+            "2026-05-06T07:08:09.123456789Z",
+            "2026-05-06T07:08:09.000000001Z",
+            "1969-12-31T23:59:59.999999999Z",
+            "2026-05-06T07:08:09+05:30",
+            "2026-05-06T07:08:09-05:30",
+            "2026-05-06T07:08:09.5+00:00",
+            "2026-05-06T07:08:09-00:00",
+            "2026-05-06T07:08:09+18:00",
+            "2026-05-06T07:08:09-18:00",
+            "0000-01-01T00:00:00+01:00",
+            "9999-12-31T23:59:59-01:00",
+            // не каноническая форма — разбирает JDK
+            "2016-12-31T23:59:60Z",
+            "2026-05-06T07:08:09+05:30:15",
+            "2026-05-06T07:08Z",
+            "2026-01-01T00:00:00.Z",
+            "2026-01-01T24:00:00Z",
+    })
+    void parsesLikeJdk(String s) {
+        assertEquals(jdkMillis(s), XsDateTime.parseMillis(s), s);
+        assertEquals(jdkMillis(s), XsDateTime.toEpochMillisOrNull(s), s);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "2023-02-29T00:00:00Z",
+            "1900-02-29T00:00:00Z",
+            "2026-04-31T00:00:00Z",
+            "2026-00-10T00:00:00Z",
+            "2026-13-01T00:00:00Z",
+            "2026-01-00T00:00:00Z",
+            "2026-01-01T24:00:01Z",
+            "2026-01-01T23:60:00Z",
+            "2026-01-01T00:00:00",
+            "2026-01-01T00:00:00.1234567890Z",
+            "2026-01-01T00:00:00+0530",
+            "2026-01-01T00:00:00+19:00",
+            "2026-01-01T00:00:00+18:01",
+            "2026-01-01T00:00:00+05:60",
+            "2026-01-01T00:00:00ZZ",
+            "2026-01-01 00:00:00Z",
+            "2026-1-01T00:00:00Z",
+            "20x6-01-01T00:00:00Z",
+            "2026-01-01",
+            "abc",
+    })
+    void rejectsWhatJdkRejects(String s) {
+        assertThrows(DateTimeException.class, () -> jdkMillis(s), s);
+        assertThrows(DateTimeException.class, () -> XsDateTime.parseMillis(s), s);
+        assertNull(XsDateTime.toEpochMillisOrNull(s), s);
+    }
+
+    @Test
+    void nullAndBlankAreNull() {
+        assertNull(XsDateTime.toEpochMillisOrNull(null));
+        assertNull(XsDateTime.toEpochMillisOrNull(""));
+        assertNull(XsDateTime.toEpochMillisOrNull("  "));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {
+            0, -1, 1, 999, 1000, -1000, -999,
+            951_782_400_000L,     // 2000-02-29
+            1_709_164_800_000L,   // 2024-02-29
+            -62_167_219_200_000L, // 0000-01-01 — ниже быстрого пути
+            -62_162_121_600_000L, // 0000-03-01 — первый день быстрого пути
+            253_402_300_799_999L, // 9999-12-31T23:59:59.999
+            253_402_300_800_000L, // 10000-01-01 — формат JDK с «+»
+            -62_167_219_200_001L, // -0001-12-31
+            Long.MAX_VALUE / 1000,
+    })
+    void formatsLikeInstantToString(long millis) {
+        assertEquals(Instant.ofEpochMilli(millis).toString(), XsDateTime.format(millis));
+    }
+
+    @Test
+    void randomRoundTripsMatchJdk() {
+        SplittableRandom rnd = new SplittableRandom(20260201);
+        for (int i = 0; i < 200_000; i++) {
+            long millis = rnd.nextLong(MIN_MILLIS, MAX_MILLIS + 1);
+            if (i % 4 == 0) millis -= millis % 1000; // без дробной части — отдельная ветка format
+
+            String utc = XsDateTime.format(millis);
+            assertEquals(Instant.ofEpochMilli(millis).toString(), utc);
+            assertEquals(millis, XsDateTime.parseMillis(utc), utc);
+
+            // та же точка со смещением и наносекундами
+            ZoneOffset offset = ZoneOffset.ofTotalSeconds(rnd.nextInt(-18 * 60, 18 * 60 + 1) * 60);
+            OffsetDateTime odt = Instant.ofEpochMilli(millis).plusNanos(rnd.nextInt(1_000_000)).atOffset(offset);
+            if (odt.getYear() < 0 || odt.getYear() > 9999) continue;
+            String local = odt.toString();
+            assertEquals(jdkMillis(local), XsDateTime.parseMillis(local), local);
+        }
+    }
+
+    private static long jdkMillis(String s) {
+        try {
+            return Instant.parse(s).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return OffsetDateTime.parse(s).toInstant().toEpochMilli();
+        }
+    }
+}
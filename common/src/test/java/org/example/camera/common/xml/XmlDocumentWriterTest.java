@@ -0,0 +1,224 @@
+package org.example.camera.common.xml;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * XmlDocumentWriter против прежней сериализации DOM + Transformer: evidence (penalty), record и case (catalog)
+ * должны совпадать побайтно — evidenceXml хранится и отдаётся строкой как есть.
+ */
+class XmlDocumentWriterTest {
+
+    // значения полей: пустые, разметка, \r, сущности, управляющие символы, символы вне BMP
+    private static final String[] VALUES = {
+            null, "", " ", "SPEED_20", "a>b", "a<b", "A&B", "x\r\ny", "\r", "tab\there", "line\nbreak",
+            "\"quoted\" 'single'", "]]>", "&amp;", "<evidence><x/></evidence>", "ёжик", "😀", "a😀b𝄞c",
+            "bell\u0007 del\u007F nel\u0085", "\u00A0\u2028", "55.75,37.62",
+    };
+
+    private static final String RULES = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <!-- правила -->
+            <rules version="1" note="a &amp; b &lt; c &gt; d &quot;q&quot;" xmlns:x="urn:x" tab="a&#9;b&#10;c&#13;d 😀">
+              <!-- порог -->
+              <rule code="SPEED_20" over="20"><amount>500</amount><review/></rule>
+              <rule code="SPEED_40" over="40"><amount>7500</amount><review></review><text>x &gt; y &amp; z</text></rule>
+              <rule over="60" code="SPEED_60"></rule>
+              <x:extra x:id="1" xmlns="urn:d"><plain/></x:extra>
+              <?audit by=ops?>
+              <?bare?>
+              <empty/>
+              <cdata><![CDATA[a < b]]></cdata>
+              <emoji>😀</emoji>
+            </rules>
+            """;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20})
+    void evidenceMatchesDom(int shift) throws Exception {
+        List<String[]> fields = fields(shift, "recordId", "fileKey", "droneId", "operatorId", "location", "time");
+        String speed = value(shift + 7);
+        List<String[]> tail = fields(shift + 11, "confidence", "decisionStatus", "ruleCode", "requiresReview", "amount");
+
+        // как EvidenceWriter до перехода на StAX
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = doc.createElement("evidence");
+        doc.appendChild(root);
+        appendAll(doc, root, fields);
+        Element sp = doc.createElement("speed");
+        sp.setAttribute("unit", "kmh");
+        sp.setTextContent(speed == null ? "" : speed);
+        root.appendChild(sp);
+        appendAll(doc, root, tail);
+
+        String actual = XmlDocumentWriter.toXml(xml -> {
+            xml.start("evidence");
+            elementAll(xml, fields);
+            xml.start("speed").attribute("unit", "kmh").text(speed == null ? "" : speed).end();
+            elementAll(xml, tail);
+            xml.end();
+        });
+
+        assertEquals(transform(doc), actual);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 3, 6, 9, 12, 15, 18})
+    void recordMatchesDom(int shift) throws Exception {
+        List<String[]> fields = fields(shift, "recordId", "sessionId", "fileKey", "droneId", "operatorId", "takenAt",
+                "latitude", "speedKmh", "status", "decisionStatus", "ruleCode", "evidenceXml");
+
+        // как CatalogRecordDom + Transformer
+        Document doc = secureFactory().newDocumentBuilder().newDocument();
+        Element catalog = doc.createElement("catalog");
+        doc.appendChild(catalog);
+        Element record = doc.createElement("record");
+        catalog.appendChild(record);
+        appendAll(doc, record, fields);
+
+        String actual = XmlDocumentWriter.toXml(xml -> {
+            xml.start("catalog").start("record");
+            elementAll(xml, fields);
+            xml.end().end();
+        });
+
+        assertEquals(transform(doc), actual);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 5, 10, 15, 20})
+    void caseMatchesDom(int shift) throws Exception {
+        List<String[]> fields = fields(shift, "recordId", "sessionId", "fileKey", "takenAt", "decisionStatus",
+                "ruleCode", "amount", "evidenceXml");
+
+        // как buildCaseDom: запись + importNode корня rules.xml
+        DocumentBuilderFactory dbf = secureFactory();
+        Document doc = dbf.newDocumentBuilder().newDocument();
+        Element root = doc.createElement("case");
+        doc.appendChild(root);
+        Element record = doc.createElement("record");
+        root.appendChild(record);
+        appendAll(doc, record, fields);
+        Document rulesDoc = dbf.newDocumentBuilder().parse(new InputSource(new StringReader(RULES)));
+        root.appendChild(doc.importNode(rulesDoc.getDocumentElement(), true));
+
+        String actual = XmlDocumentWriter.toXml(xml -> {
+            xml.start("case").start("record");
+            elementAll(xml, fields);
+            xml.end();
+            xml.copyOf(RULES);
+            xml.end();
+        });
+
+        assertEquals(transform(doc), actual);
+    }
+
+    // каждый символ в тексте и в атрибуте: какие уходят ссылками, решал Transformer
+    @Test
+    void everyCharacterEscapedAsDom() throws Exception {
+        List<String> chars = new ArrayList<>();
+        for (int cp = 1; cp <= Character.MAX_CODE_POINT; cp += (cp < 0x10000) ? 1 : 251) {
+            if (cp < Character.MIN_SURROGATE || cp > Character.MAX_SURROGATE) chars.add("a" + Character.toString(cp) + "b");
+        }
+
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = doc.createElement("chars");
+        doc.appendChild(root);
+        for (String c : chars) {
+            Element e = doc.createElement("c");
+            e.setAttribute("v", c);
+            e.setTextContent(c);
+            root.appendChild(e);
+        }
+
+        String actual = XmlDocumentWriter.toXml(xml -> {
+            xml.start("chars");
+            for (String c : chars) xml.start("c").attribute("v", c).text(c).end();
+            xml.end();
+        });
+
+        assertEquals(transform(doc), actual);
+    }
+
+    // одиночный суррогат: Transformer падал, писатель тоже — не пишет испорченный документ
+    @Test
+    void loneSurrogateFailsLikeDom() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = doc.createElement("evidence");
+        doc.appendChild(root);
+        root.setTextContent("a\uD800b");
+
+        assertThrows(TransformerException.class, () -> transform(doc));
+        assertThrows(XMLStreamException.class, () -> XmlDocumentWriter.toXml(xml -> xml.element("evidence", "a\uD800b")));
+        assertThrows(XMLStreamException.class, () -> XmlDocumentWriter.toXml(xml -> xml.element("evidence", "a\uDC00")));
+    }
+
+    @Test
+    void outputStreamIsUtf8OfTheSameText() throws Exception {
+        String text = XmlDocumentWriter.toXml(xml -> xml.element("v", "ёжик 😀 a>b\r"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XmlDocumentWriter xml = XmlDocumentWriter.open(bytes);
+        xml.element("v", "ёжик 😀 a>b\r");
+        xml.finish();
+
+        assertEquals(text, bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String value(int i) {
+        return VALUES[Math.floorMod(i, VALUES.length)];
+    }
+
+    private static List<String[]> fields(int shift, String... names) {
+        List<String[]> out = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) out.add(new String[]{names[i], value(shift + i)});
+        return out;
+    }
+
+    private static void appendAll(Document doc, Element parent, List<String[]> fields) {
+        for (String[] f : fields) {
+            Element e = doc.createElement(f[0]);
+            e.setTextContent(f[1] == null ? "" : f[1]);
+            parent.appendChild(e);
+        }
+    }
+
+    private static void elementAll(XmlDocumentWriter xml, List<String[]> fields) throws XMLStreamException {
+        for (String[] f : fields) xml.element(f[0], f[1]);
+    }
+
+    private static DocumentBuilderFactory secureFactory() throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        return dbf;
+    }
+
+    private static String transform(Document doc) throws Exception {
+        StringWriter sw = new StringWriter();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(sw));
+        return sw.toString();
+    }
+}
@@ -1,14 +1,24 @@
 package org.example.camera.penalty.db;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.example.camera.common.time.XsDateTime;
+import org.springframework.data.domain.Persistable;
 
 import java.time.Instant;
 
 @Entity
-@Table(name = "measurement")
-public class MeasurementEntity {
+@Table(name = "measurement", indexes = {
+        // окна по времени измерения — range scan по индексу
+        @Index(name = "idx_measurement_time", columnList = "timeEpochMillis, recordId")
+})
+public class MeasurementEntity implements Persistable<String> {
 
     @Id
     private String recordId; // делаем idempotency через PK
@@ -20,17 +30,35 @@ public class MeasurementEntity {
     private double speed;
     private String location;
     private String time;
+    private Long timeEpochMillis; // time числом; null — строка не разбирается
     private double confidence;
 
     private Instant createdAt;
     private Instant updatedAt;
 
+    // id назначаем сами (recordId): без флага saveAll пакетной проверки делал бы merge — SELECT на каждую новую запись
+    @Transient
+    private boolean isNew = true;
+
     public MeasurementEntity() {}
 
     public MeasurementEntity(String recordId) {
         this.recordId = recordId;
     }
 
+    // сущность отдаётся в /measurements как есть — служебные id/new в JSON не нужны
+    @JsonIgnore
+    @Override
+    public String getId() { return recordId; }
+
+    @JsonIgnore
+    @Override
+    public boolean isNew() { return isNew; }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
+
     public String getRecordId() { return recordId; }
     public void setRecordId(String recordId) { this.recordId = recordId; }
 
@@ -50,7 +78,12 @@ public class MeasurementEntity {
     public void setLocation(String location) { this.location = location; }
 
     public String getTime() { return time; }
-    public void setTime(String time) { this.time = time; }
+    public void setTime(String time) {
+        this.time = time;
+        this.timeEpochMillis = XsDateTime.toEpochMillisOrNull(time);
+    }
+
+    public Long getTimeEpochMillis() { return timeEpochMillis; }
 
     public double getConfidence() { return confidence; }
     public void setConfidence(double confidence) { this.confidence = confidence; }
@@ -1,6 +1,16 @@
 package org.example.camera.penalty.db;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
 
 public interface MeasurementRepository extends JpaRepository<MeasurementEntity, String> {
+
+    // [from, to) по времени измерения — по индексу idx_measurement_time
+    @Query("select m from MeasurementEntity m where m.timeEpochMillis >= :from and m.timeEpochMillis < :to"
+            + " order by m.timeEpochMillis, m.recordId")
+    List<MeasurementEntity> findTimeBetween(@Param("from") long from, @Param("to") long to, Pageable page);
 }
@@ -3,13 +3,17 @@ package org.example.camera.penalty.db;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Lob;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
 
 import java.time.Instant;
 
 @Entity
 @Table(name = "penalty")
-public class PenaltyEntity {
+public class PenaltyEntity implements Persistable<String> {
 
     @Id
     private String recordId;
@@ -25,12 +29,26 @@ public class PenaltyEntity {
     private Instant createdAt;
     private Instant updatedAt;
 
+    // id назначаем сами (recordId): без флага saveAll пакетной проверки делал бы merge — SELECT на каждую новую запись
+    @Transient
+    private boolean isNew = true;
+
     public PenaltyEntity() {}
 
     public PenaltyEntity(String recordId) {
         this.recordId = recordId;
     }
 
+    @Override
+    public String getId() { return recordId; }
+
+    @Override
+    public boolean isNew() { return isNew; }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
+
     public String getRecordId() { return recordId; }
     public void setRecordId(String recordId) { this.recordId = recordId; }
 
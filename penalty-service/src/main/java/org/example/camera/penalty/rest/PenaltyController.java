@@ -2,45 +2,44 @@ package org.example.camera.penalty.rest;
 
 import org.example.camera.common.dto.PenaltyCheckRequestDto;
 import org.example.camera.common.dto.PenaltyCheckResponseDto;
-import org.example.camera.penalty.db.MeasurementEntity;
-import org.example.camera.penalty.db.MeasurementRepository;
+import org.example.camera.common.xml.XmlDocumentWriter;
 import org.example.camera.penalty.db.PenaltyEntity;
 import org.example.camera.penalty.db.PenaltyRepository;
 import org.example.camera.penalty.db.ViolationEntity;
 import org.example.camera.penalty.db.ViolationRepository;
 import org.example.camera.penalty.service.PenaltyDecisionService;
+import org.example.camera.penalty.service.PenaltyRecordService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.StringWriter;
+
+import javax.xml.stream.XMLStreamException;
 import java.time.Instant;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/penalty")
 public class PenaltyController {
 
     private final PenaltyDecisionService decisionService;
-    private final MeasurementRepository measurements;
+    private final PenaltyRecordService records;
     private final ViolationRepository violations;
     private final PenaltyRepository penalties;
+    private final int maxBatchSize;
 
     public PenaltyController(
             PenaltyDecisionService decisionService,
-            MeasurementRepository measurements,
+            PenaltyRecordService records,
             ViolationRepository violations,
-            PenaltyRepository penalties
+            PenaltyRepository penalties,
+            @Value("${app.penalty.check.max-batch-size}") int maxBatchSize
     ) {
         this.decisionService = decisionService;
-        this.measurements = measurements;
+        this.records = records;
         this.violations = violations;
         this.penalties = penalties;
+        this.maxBatchSize = maxBatchSize;
     }
 
     @PostMapping("/check")
@@ -50,10 +49,40 @@ public class PenaltyController {
         PenaltyCheckResponseDto resp = decisionService.decide(req);
         resp.evidenceXml = buildEvidenceXml(req, resp);
 
-        upsertAll(req, resp);
+        records.upsertAll(List.of(req), List.of(resp));
         return resp;
     }
 
+    /**
+     * Пакетная проверка: те же правила, что у /check, для всех запросов сразу.
+     * rules.xml разбирается один раз, запись — одной транзакцией; ответы в порядке запросов.
+     * Невалидный элемент отклоняет всю пачку (400) до записи.
+     */
+    @PostMapping("/check/batch")
+    public List<PenaltyCheckResponseDto> checkBatch(@RequestBody List<PenaltyCheckRequestDto> reqs) {
+        if (reqs == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "request body is required");
+        if (reqs.size() > maxBatchSize) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "batch size " + reqs.size() + " exceeds " + maxBatchSize);
+        }
+        for (int i = 0; i < reqs.size(); i++) {
+            try {
+                validate(reqs.get(i));
+            } catch (ResponseStatusException e) {
+                throw new ResponseStatusException(e.getStatusCode(), "requests[" + i + "]: " + e.getReason());
+            }
+        }
+        if (reqs.isEmpty()) return List.of();
+
+        List<PenaltyCheckResponseDto> resps = decisionService.decideAll(reqs);
+        for (int i = 0; i < reqs.size(); i++) {
+            resps.get(i).evidenceXml = buildEvidenceXml(reqs.get(i), resps.get(i));
+        }
+
+        records.upsertAll(reqs, resps);
+        return resps;
+    }
+
     /**
      * Ручная проверка: разрешена только если ранее было REQUIRES_REVIEW.
      * По итогам ручной проверки requiresReview в Violation сбрасывается в false.
@@ -114,58 +143,6 @@ public class PenaltyController {
         return resp;
     }
 
-    private void upsertAll(PenaltyCheckRequestDto req, PenaltyCheckResponseDto resp) {
-        Instant now = Instant.now();
-
-        // Measurement (факт измерения)
-        MeasurementEntity m = measurements.findById(req.recordId)
-                .orElseGet(() -> {
-                    MeasurementEntity x = new MeasurementEntity(req.recordId);
-                    x.setCreatedAt(now);
-                    return x;
-                });
-
-        m.setUpdatedAt(now);
-        m.setFileKey(req.fileKey);
-        m.setDroneId(req.droneId);
-        m.setOperatorId(req.operatorId);
-        m.setSpeed(req.speed);
-        m.setLocation(req.location);
-        m.setTime(req.time);
-        m.setConfidence(req.confidence);
-        measurements.save(m);
-
-        // Violation (норма/правило + флаг review)
-        ViolationEntity v = violations.findById(req.recordId)
-                .orElseGet(() -> {
-                    ViolationEntity x = new ViolationEntity(req.recordId);
-                    x.setCreatedAt(now);
-                    return x;
-                });
-
-        v.setUpdatedAt(now);
-        v.setRuleCode(resp.ruleCode);
-        v.setRequiresReview(resp.requiresReview);
-        v.setConfidence(req.confidence);
-        violations.save(v);
-
-        // Penalty (решение + сумма + evidence + коммент инспектора)
-        PenaltyEntity p = penalties.findById(req.recordId)
-                .orElseGet(() -> {
-                    PenaltyEntity x = new PenaltyEntity(req.recordId);
-                    x.setCreatedAt(now);
-                    return x;
-                });
-
-        p.setUpdatedAt(now);
-        p.setDecisionStatus(resp.decisionStatus);
-        p.setAmount(resp.amount);
-        p.setEvidenceXml(resp.evidenceXml);
-
-        // inspectorComment НЕ трогаем в автоматике (оставляем как есть, если уже был)
-        penalties.save(p);
-    }
-
     private static void validate(PenaltyCheckRequestDto req) {
         if (req == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "request body is required");
         if (req.recordId == null || req.recordId.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "recordId is required");
@@ -177,48 +154,36 @@ public class PenaltyController {
         if (req.time == null || req.time.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "time is required");
     }
 
+    // evidence.xml пишется StAX сразу в строку (хранится в Penalty/Violation и уходит в ответе), без DOM
     private static String buildEvidenceXml(PenaltyCheckRequestDto req, PenaltyCheckResponseDto resp) {
         try {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            return XmlDocumentWriter.toXml(xml -> {
+                xml.start("evidence");
 
-            Element root = doc.createElement("evidence");
-            doc.appendChild(root);
+                xml.element("recordId", req.recordId);
+                xml.element("fileKey", req.fileKey);
+                xml.element("droneId", req.droneId);
+                xml.element("operatorId", req.operatorId);
 
-            append(doc, root, "recordId", req.recordId);
-            append(doc, root, "fileKey", req.fileKey);
-            append(doc, root, "droneId", req.droneId);
-            append(doc, root, "operatorId", req.operatorId);
+                xml.element("location", req.location);
+                xml.element("time", req.time);
 
-            append(doc, root, "location", req.location);
-            append(doc, root, "time", req.time);
+                xml.start("speed").attribute("unit", "kmh").text(String.valueOf(req.speed)).end();
 
-            Element speed = doc.createElement("speed");
-            speed.setAttribute("unit", "kmh");
-            speed.setTextContent(String.valueOf(req.speed));
-            root.appendChild(speed);
+                xml.element("confidence", String.valueOf(req.confidence));
 
-            append(doc, root, "confidence", String.valueOf(req.confidence));
+                xml.element("decisionStatus", resp.decisionStatus);
+                xml.element("ruleCode", resp.ruleCode);
+                xml.element("requiresReview", String.valueOf(resp.requiresReview));
+                xml.element("amount", String.valueOf(resp.amount));
 
-            append(doc, root, "decisionStatus", resp.decisionStatus);
-            append(doc, root, "ruleCode", resp.ruleCode);
-            append(doc, root, "requiresReview", String.valueOf(resp.requiresReview));
-            append(doc, root, "amount", String.valueOf(resp.amount));
-
-            StringWriter sw = new StringWriter();
-            TransformerFactory.newInstance().newTransformer()
-                    .transform(new DOMSource(doc), new StreamResult(sw));
-            return sw.toString();
-        } catch (Exception e) {
-            throw new IllegalStateException("DOM build evidence error: " + e.getMessage(), e);
+                xml.end();
+            });
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("evidence xml build error: " + e.getMessage(), e);
         }
     }
 
-    private static void append(Document doc, Element parent, String name, String value) {
-        Element e = doc.createElement(name);
-        e.setTextContent(value == null ? "" : value);
-        parent.appendChild(e);
-    }
-
     public static class ReviewRequest {
         public String decisionStatus;   // "APPROVED" / "REJECTED" / "NO_VIOLATION"
         public String ruleCode;         // опционально
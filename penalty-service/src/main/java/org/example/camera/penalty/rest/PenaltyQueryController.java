@@ -1,24 +1,36 @@
 package org.example.camera.penalty.rest;
 
 import org.example.camera.common.dto.PenaltyCheckResponseDto;
+import org.example.camera.common.time.XsDateTime;
+import org.example.camera.penalty.db.MeasurementEntity;
+import org.example.camera.penalty.db.MeasurementRepository;
 import org.example.camera.penalty.db.PenaltyEntity;
 import org.example.camera.penalty.db.PenaltyRepository;
 import org.example.camera.penalty.db.ViolationEntity;
 import org.example.camera.penalty.db.ViolationRepository;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.DateTimeException;
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/penalty")
 public class PenaltyQueryController {
 
+    private static final int MAX_WINDOW_LIMIT = 10_000;
+
     private final PenaltyRepository penalties;
     private final ViolationRepository violations;
+    private final MeasurementRepository measurements;
 
-    public PenaltyQueryController(PenaltyRepository penalties, ViolationRepository violations) {
+    public PenaltyQueryController(PenaltyRepository penalties, ViolationRepository violations,
+                                  MeasurementRepository measurements) {
         this.penalties = penalties;
         this.violations = violations;
+        this.measurements = measurements;
     }
 
     @GetMapping("/checks/{recordId}")
@@ -44,4 +56,23 @@ public class PenaltyQueryController {
 
         return resp;
     }
+
+    // Измерения за окно времени [from, to) — xs:dateTime, по возрастанию time
+    @GetMapping("/measurements")
+    public List<MeasurementEntity> measurementsBetween(@RequestParam("from") String from,
+                                                       @RequestParam("to") String to,
+                                                       @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        if (limit < 1 || limit > MAX_WINDOW_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be 1.." + MAX_WINDOW_LIMIT);
+        }
+        return measurements.findTimeBetween(parseTimeParam("from", from), parseTimeParam("to", to), PageRequest.of(0, limit));
+    }
+
+    private static long parseTimeParam(String name, String value) {
+        try {
+            return XsDateTime.parseMillis(value);
+        } catch (DateTimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, name + " must be xs:dateTime: " + value, e);
+        }
+    }
 }
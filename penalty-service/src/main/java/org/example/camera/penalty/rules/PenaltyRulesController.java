@@ -1,5 +1,7 @@
 package org.example.camera.penalty.rules;
 
+import org.example.camera.common.xml.XmlGrammarRegistry;
+import org.example.camera.common.xml.XmlValidationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
@@ -10,10 +12,6 @@ import org.xml.sax.SAXParseException;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.sax.SAXSource;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFactory;
@@ -29,7 +27,6 @@ import java.util.List;
 @RequestMapping("/api/penalty/rules")
 public class PenaltyRulesController {
 
-    private static final String RULES_XSD = "contracts/rules/rules.xsd";
     private static final String ACTIVE_ID = "active";
 
     private final RuleSetRepository repo;
@@ -101,42 +98,18 @@ public class PenaltyRulesController {
     }
 
     private void validateRulesXsd(byte[] xmlBytes) {
-        try (var xsdStream = getClass().getClassLoader().getResourceAsStream(RULES_XSD)) {
-            if (xsdStream == null) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "XSD not found: " + RULES_XSD);
-            }
-
-            var sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-            try {
-                sf.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-                sf.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-            } catch (Exception ignored) {}
-
-            var schema = sf.newSchema(new StreamSource(xsdStream));
-            Validator v = schema.newValidator();
-
-            var spf = javax.xml.parsers.SAXParserFactory.newInstance();
-            spf.setNamespaceAware(true);
-
-            trySetFeature(spf, "http://xml.org/sax/features/external-general-entities", false);
-            trySetFeature(spf, "http://xml.org/sax/features/external-parameter-entities", false);
-            trySetFeature(spf, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-
-            v.validate(new SAXSource(spf.newSAXParser().getXMLReader(), new InputSource(new ByteArrayInputStream(xmlBytes))));
+        try {
+            XmlGrammarRegistry.validate(XmlGrammarRegistry.Contract.RULES, new InputSource(new ByteArrayInputStream(xmlBytes)), null);
         } catch (SAXParseException e) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                     "rules.xml invalid by XSD: line=" + e.getLineNumber() + ", col=" + e.getColumnNumber() + ", msg=" + e.getMessage(), e);
-        } catch (ResponseStatusException e) {
-            throw e;
+        } catch (XmlValidationException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage(), e);
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "rules.xml XSD validation failed: " + e.getMessage(), e);
         }
     }
 
-    private static void trySetFeature(javax.xml.parsers.SAXParserFactory spf, String feature, boolean value) {
-        try { spf.setFeature(feature, value); } catch (Exception ignored) {}
-    }
-
     private static Document parseXmlSecure(String xml) {
         try {
             DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -16,6 +16,8 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
 @Service
 public class PenaltyDecisionService {
@@ -29,6 +31,18 @@ public class PenaltyDecisionService {
     }
 
     public PenaltyCheckResponseDto decide(PenaltyCheckRequestDto req) {
+        return loadRules().decide(req);
+    }
+
+    /** Решения для пачки: rules.xml разбирается один раз на всю пачку; порядок ответов — как у запросов. */
+    public List<PenaltyCheckResponseDto> decideAll(List<PenaltyCheckRequestDto> reqs) {
+        ActiveRules rules = loadRules();
+        List<PenaltyCheckResponseDto> out = new ArrayList<>(reqs.size());
+        for (PenaltyCheckRequestDto req : reqs) out.add(rules.decide(req));
+        return out;
+    }
+
+    private ActiveRules loadRules() {
         RuleSetEntity rules = rulesRepo.findById(ACTIVE_ID)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "rules.xml is not uploaded to penalty-service"));
 
@@ -43,54 +57,81 @@ public class PenaltyDecisionService {
         if (!Double.isFinite(reviewThreshold) || reviewThreshold < 0 || reviewThreshold > 1) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid rules: reviewConfidenceThreshold");
         }
+        return new ActiveRules(rulesDoc, speedLimit, reviewThreshold);
+    }
 
-        double over = req.speed - speedLimit;
+    // разобранный rules.xml; шкала штрафов читается XPath при первом превышении и дальше переиспользуется
+    private static final class ActiveRules {
+        private final Document rulesDoc;
+        private final double speedLimit;
+        private final double reviewThreshold;
+        private List<double[]> brackets; // {fromOverKmh, toOverKmh (NaN — без границы), amount}
+
+        ActiveRules(Document rulesDoc, double speedLimit, double reviewThreshold) {
+            this.rulesDoc = rulesDoc;
+            this.speedLimit = speedLimit;
+            this.reviewThreshold = reviewThreshold;
+        }
+
+        PenaltyCheckResponseDto decide(PenaltyCheckRequestDto req) {
+            double over = req.speed - speedLimit;
 
-        PenaltyCheckResponseDto resp = new PenaltyCheckResponseDto();
-        resp.recordId = req.recordId;
+            PenaltyCheckResponseDto resp = new PenaltyCheckResponseDto();
+            resp.recordId = req.recordId;
+
+            if (over <= 0) {
+                resp.ruleCode = "NO_VIOLATION";
+                resp.amount = 0.0;
+                resp.requiresReview = false;
+                resp.decisionStatus = "NO_VIOLATION";
+                return resp;
+            }
 
-        if (over <= 0) {
-            resp.ruleCode = "NO_VIOLATION";
-            resp.amount = 0.0;
-            resp.requiresReview = false;
-            resp.decisionStatus = "NO_VIOLATION";
+            double amount = selectAmountForOver(over);
+            boolean requiresReview = req.confidence < reviewThreshold;
+
+            resp.ruleCode = "SPEED_LIMIT";
+            resp.amount = amount;
+            resp.requiresReview = requiresReview;
+            resp.decisionStatus = requiresReview ? "REQUIRES_REVIEW" : "APPROVED";
             return resp;
         }
 
-        double amount = selectAmountForOver(rulesDoc, over);
-        boolean requiresReview = req.confidence < reviewThreshold;
+        private double selectAmountForOver(double overKmh) {
+            if (brackets == null) brackets = readBrackets(rulesDoc);
+
+            // финальная проверка интервала — по числам, первый подходящий bracket
+            for (double[] b : brackets) {
+                boolean inRange = (overKmh >= b[0]) && (Double.isNaN(b[1]) || overKmh < b[1]);
+                if (inRange) return b[2];
+            }
 
-        resp.ruleCode = "SPEED_LIMIT";
-        resp.amount = amount;
-        resp.requiresReview = requiresReview;
-        resp.decisionStatus = requiresReview ? "REQUIRES_REVIEW" : "APPROVED";
-        return resp;
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid rules: no bracket matched overKmh=" + overKmh);
+        }
     }
 
-    private static double selectAmountForOver(Document rulesDoc, double overKmh) {
+    private static List<double[]> readBrackets(Document rulesDoc) {
         try {
             var xp = XPathFactory.newInstance().newXPath();
 
-            // XPath отбирает кандидатов (DOM+XPath), финальная проверка интервала — по числам
+            // XPath отбирает кандидатов (DOM+XPath)
             NodeList brackets = (NodeList) xp.evaluate("/rules/amounts/bracket", rulesDoc, XPathConstants.NODESET);
             if (brackets == null || brackets.getLength() == 0) {
                 throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid rules: amounts/bracket is empty");
             }
 
+            List<double[]> out = new ArrayList<>(brackets.getLength());
             for (int i = 0; i < brackets.getLength(); i++) {
                 var b = brackets.item(i);
 
                 double from = toFinite(xp.evaluate("number(fromOverKmh)", b));
                 String toRaw = xp.evaluate("string(toOverKmh)", b);
-                Double to = (toRaw == null || toRaw.isBlank()) ? null : toFinite(toRaw);
+                double to = (toRaw == null || toRaw.isBlank()) ? Double.NaN : toFinite(toRaw);
 
                 double amount = toFinite(xp.evaluate("number(amount)", b));
-
-                boolean inRange = (overKmh >= from) && (to == null || overKmh < to);
-                if (inRange) return amount;
+                out.add(new double[]{from, to, amount});
             }
-
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Invalid rules: no bracket matched overKmh=" + overKmh);
+            return out;
         } catch (ResponseStatusException e) {
             throw e;
         } catch (Exception e) {
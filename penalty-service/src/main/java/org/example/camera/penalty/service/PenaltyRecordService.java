@@ -0,0 +1,115 @@
+package org.example.camera.penalty.service;
+
+import org.example.camera.common.dto.PenaltyCheckRequestDto;
+import org.example.camera.common.dto.PenaltyCheckResponseDto;
+import org.example.camera.penalty.db.MeasurementEntity;
+import org.example.camera.penalty.db.MeasurementRepository;
+import org.example.camera.penalty.db.PenaltyEntity;
+import org.example.camera.penalty.db.PenaltyRepository;
+import org.example.camera.penalty.db.ViolationEntity;
+import org.example.camera.penalty.db.ViolationRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Запись результатов проверки: Measurement, Violation и Penalty по recordId (upsert).
+ * Пачка пишется одной транзакцией: существующие записи читаются одним IN-запросом на таблицу,
+ * новые вставляются JDBC-батчами.
+ */
+@Service
+public class PenaltyRecordService {
+
+    private final MeasurementRepository measurements;
+    private final ViolationRepository violations;
+    private final PenaltyRepository penalties;
+
+    public PenaltyRecordService(MeasurementRepository measurements, ViolationRepository violations,
+                                PenaltyRepository penalties) {
+        this.measurements = measurements;
+        this.violations = violations;
+        this.penalties = penalties;
+    }
+
+    /** reqs и resps — параллельные списки (ответ i относится к запросу i). */
+    @Transactional
+    public void upsertAll(List<PenaltyCheckRequestDto> reqs, List<PenaltyCheckResponseDto> resps) {
+        Instant now = Instant.now();
+
+        // повтор recordId в пачке — остаётся последний, как при последовательных вызовах /check
+        Map<String, Integer> lastIndex = new LinkedHashMap<>();
+        for (int i = 0; i < reqs.size(); i++) lastIndex.put(reqs.get(i).recordId, i);
+
+        Map<String, MeasurementEntity> existingM = byId(measurements.findAllById(lastIndex.keySet()), MeasurementEntity::getRecordId);
+        Map<String, ViolationEntity> existingV = byId(violations.findAllById(lastIndex.keySet()), ViolationEntity::getRecordId);
+        Map<String, PenaltyEntity> existingP = byId(penalties.findAllById(lastIndex.keySet()), PenaltyEntity::getRecordId);
+
+        List<MeasurementEntity> ms = new ArrayList<>(lastIndex.size());
+        List<ViolationEntity> vs = new ArrayList<>(lastIndex.size());
+        List<PenaltyEntity> ps = new ArrayList<>(lastIndex.size());
+
+        for (int i : lastIndex.values()) {
+            PenaltyCheckRequestDto req = reqs.get(i);
+            PenaltyCheckResponseDto resp = resps.get(i);
+
+            // Measurement (факт измерения)
+            MeasurementEntity m = existingM.get(req.recordId);
+            if (m == null) {
+                m = new MeasurementEntity(req.recordId);
+                m.setCreatedAt(now);
+            }
+            m.setUpdatedAt(now);
+            m.setFileKey(req.fileKey);
+            m.setDroneId(req.droneId);
+            m.setOperatorId(req.operatorId);
+            m.setSpeed(req.speed);
+            m.setLocation(req.location);
+            m.setTime(req.time);
+            m.setConfidence(req.confidence);
+            ms.add(m);
+
+            // Violation (норма/правило + флаг review)
+            ViolationEntity v = existingV.get(req.recordId);
+            if (v == null) {
+                v = new ViolationEntity(req.recordId);
+                v.setCreatedAt(now);
+            }
+            v.setUpdatedAt(now);
+            v.setRuleCode(resp.ruleCode);
+            v.setRequiresReview(resp.requiresReview);
+            v.setConfidence(req.confidence);
+            vs.add(v);
+
+            // Penalty (решение + сумма + evidence + коммент инспектора)
+            PenaltyEntity p = existingP.get(req.recordId);
+            if (p == null) {
+                p = new PenaltyEntity(req.recordId);
+                p.setCreatedAt(now);
+            }
+            p.setUpdatedAt(now);
+            p.setDecisionStatus(resp.decisionStatus);
+            p.setAmount(resp.amount);
+            p.setEvidenceXml(resp.evidenceXml);
+
+            // inspectorComment НЕ трогаем в автоматике (оставляем как есть, если уже был)
+            ps.add(p);
+        }
+
+        measurements.saveAll(ms);
+        violations.saveAll(vs);
+        penalties.saveAll(ps);
+    }
+
+    private static <T> Map<String, T> byId(List<T> rows, Function<T, String> id) {
+        Map<String, T> out = new HashMap<>(rows.size() * 2);
+        for (T row : rows) out.put(id.apply(row), row);
+        return out;
+    }
+}
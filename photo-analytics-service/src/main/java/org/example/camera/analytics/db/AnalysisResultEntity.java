@@ -2,13 +2,24 @@ package org.example.camera.analytics.db;
 
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.example.camera.common.time.XsDateTime;
+import org.springframework.data.domain.Persistable;
 
 import java.time.Instant;
 
 @Entity
-@Table(name = "analysis_result")
-public class AnalysisResultEntity {
+@Table(name = "analysis_result", indexes = {
+        // выдача сессии keyset-страницами по fileKey — range scan по индексу, а не по всей таблице
+        @Index(name = "idx_analysis_result_session_file_key", columnList = "sessionId, fileKey"),
+        // окно времени внутри сессии keyset-страницами по (takenAtEpochMillis, fileKey) — range scan по индексу
+        @Index(name = "idx_analysis_result_session_taken_at", columnList = "sessionId, takenAtEpochMillis, fileKey")
+})
+public class AnalysisResultEntity implements Persistable<String> {
 
     @Id
     private String recordId; // sessionId:fileKey
@@ -16,6 +27,9 @@ public class AnalysisResultEntity {
     private String sessionId;
     private String fileKey;
 
+    private String takenAt; // xs:dateTime фото строкой из manifest
+    private Long takenAtEpochMillis; // то же время числом
+
     private double distanceMeters;
     private double speedKmh;
     private double confidence;
@@ -26,12 +40,26 @@ public class AnalysisResultEntity {
     private Instant createdAt;
     private Instant updatedAt;
 
+    // id назначаем сами: без флага saveAll делал бы merge (лишний SELECT на каждую новую запись)
+    @Transient
+    private boolean isNew = true;
+
     public AnalysisResultEntity() {}
 
     public AnalysisResultEntity(String recordId) {
         this.recordId = recordId;
     }
 
+    @Override
+    public String getId() { return recordId; }
+
+    @Override
+    public boolean isNew() { return isNew; }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() { this.isNew = false; }
+
     public String getRecordId() { return recordId; }
     public void setRecordId(String recordId) { this.recordId = recordId; }
 
@@ -41,6 +69,14 @@ public class AnalysisResultEntity {
     public String getFileKey() { return fileKey; }
     public void setFileKey(String fileKey) { this.fileKey = fileKey; }
 
+    public String getTakenAt() { return takenAt; }
+    public void setTakenAt(String takenAt) {
+        this.takenAt = takenAt;
+        this.takenAtEpochMillis = XsDateTime.toEpochMillisOrNull(takenAt);
+    }
+
+    public Long getTakenAtEpochMillis() { return takenAtEpochMillis; }
+
     public double getDistanceMeters() { return distanceMeters; }
     public void setDistanceMeters(double distanceMeters) { this.distanceMeters = distanceMeters; }
 
@@ -1,6 +1,31 @@
 package org.example.camera.analytics.db;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
 
 public interface AnalysisResultRepository extends JpaRepository<AnalysisResultEntity, String> {
+
+    // keyset-страница сессии: fileKey > afterFileKey — по индексу idx_analysis_result_session_file_key;
+    // первая страница — afterFileKey = "" (fileKey всегда непустой)
+    List<AnalysisResultView> findBySessionIdAndFileKeyGreaterThanOrderByFileKeyAsc(String sessionId, String afterFileKey,
+                                                                                  Limit limit);
+
+    // keyset-страница окна времени съёмки внутри сессии: (takenAtEpochMillis, fileKey) > (afterMillis, afterFileKey)
+    // и takenAtEpochMillis < to — по индексу idx_analysis_result_session_taken_at;
+    // первая страница окна [from, to) — afterMillis = from, afterFileKey = ""
+    @Query("select r.fileKey as fileKey, r.distanceMeters as distanceMeters, r.speedKmh as speedKmh,"
+            + " r.confidence as confidence, r.objectType as objectType, r.modelVersion as modelVersion,"
+            + " r.takenAtEpochMillis as takenAtEpochMillis"
+            + " from AnalysisResultEntity r where r.sessionId = :sessionId"
+            + " and r.takenAtEpochMillis >= :afterMillis and r.takenAtEpochMillis < :to"
+            + " and (r.takenAtEpochMillis > :afterMillis or r.fileKey > :afterFileKey)"
+            + " order by r.takenAtEpochMillis, r.fileKey")
+    List<AnalysisResultView> findTakenBetween(@Param("sessionId") String sessionId,
+                                              @Param("afterMillis") long afterMillis,
+                                              @Param("afterFileKey") String afterFileKey,
+                                              @Param("to") long to, Limit limit);
 }
@@ -0,0 +1,15 @@
+package org.example.camera.analytics.db;
+
+/**
+ * Проекция результата анализа для выдачи наружу: только отдаваемые колонки, без сущности
+ * в persistence context (выборка кортежами, без dirty checking).
+ */
+public interface AnalysisResultView {
+    String getFileKey();
+    double getDistanceMeters();
+    double getSpeedKmh();
+    double getConfidence();
+    String getObjectType();
+    String getModelVersion();
+    Long getTakenAtEpochMillis(); // курсор окна времени, наружу не отдаётся
+}
@@ -1,5 +1,6 @@
 package org.example.camera.analytics.db;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
@@ -21,6 +22,15 @@ public class CaptureSessionEntity {
     private String packageChecksum;
     private String status;
 
+    // пакет уже был обработан в другой сессии: анализ и записи catalog — у неё
+    private String sourceSessionId;
+
+    // watermark передачи в catalog: пишется только запросами репозитория (сессию сохраняют и другие потоки)
+    @Column(insertable = false, updatable = false)
+    private String catalogHandoffKey;
+    @Column(insertable = false, updatable = false)
+    private Integer catalogChunksAcked;
+
     public String getSessionId() { return sessionId; }
     public void setSessionId(String sessionId) { this.sessionId = sessionId; }
 
@@ -41,4 +51,13 @@ public class CaptureSessionEntity {
 
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
+
+    public String getSourceSessionId() { return sourceSessionId; }
+    public void setSourceSessionId(String sourceSessionId) { this.sourceSessionId = sourceSessionId; }
+
+    public String getCatalogHandoffKey() { return catalogHandoffKey; }
+    public void setCatalogHandoffKey(String catalogHandoffKey) { this.catalogHandoffKey = catalogHandoffKey; }
+
+    public Integer getCatalogChunksAcked() { return catalogChunksAcked; }
+    public void setCatalogChunksAcked(Integer catalogChunksAcked) { this.catalogChunksAcked = catalogChunksAcked; }
 }
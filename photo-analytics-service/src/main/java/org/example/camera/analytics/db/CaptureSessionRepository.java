@@ -1,5 +1,23 @@
 package org.example.camera.analytics.db;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface CaptureSessionRepository extends JpaRepository<CaptureSessionEntity, String> {}
+public interface CaptureSessionRepository extends JpaRepository<CaptureSessionEntity, String> {
+
+    // новая передача в catalog (другой manifest или размер порции) — watermark с нуля
+    @Transactional
+    @Modifying
+    @Query("update CaptureSessionEntity s set s.catalogHandoffKey = :key, s.catalogChunksAcked = 0 where s.sessionId = :sessionId")
+    int resetCatalogHandoff(@Param("sessionId") String sessionId, @Param("key") String key);
+
+    // watermark только растёт и только для текущей передачи
+    @Transactional
+    @Modifying
+    @Query("update CaptureSessionEntity s set s.catalogChunksAcked = :acked"
+            + " where s.sessionId = :sessionId and s.catalogHandoffKey = :key and s.catalogChunksAcked < :acked")
+    int markCatalogChunksAcked(@Param("sessionId") String sessionId, @Param("key") String key, @Param("acked") int acked);
+}
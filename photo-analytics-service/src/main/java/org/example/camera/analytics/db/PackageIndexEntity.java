@@ -0,0 +1,67 @@
+package org.example.camera.analytics.db;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Индекс обработанных пакетов по SHA-256: какая сессия довела пакет до CATALOG_SENT и с каким итогом.
+ * Повторная загрузка того же пакета берёт итог отсюда, а не обрабатывает пакет заново.
+ */
+@Entity
+@Table(name = "package_index")
+public class PackageIndexEntity {
+
+    @Id
+    private String checksum;
+
+    private String sessionId; // сессия, в которой пакет обработан (её анализ и записи catalog)
+    private int photos;
+
+    // header manifest — для проверки целостности при повторной загрузке в другую сессию
+    private String droneId;
+    private String operatorId;
+    private String startTime;
+    private String endTime;
+
+    @Lob
+    private String ambiguousFileKeysJson;
+
+    private Instant indexedAt;
+
+    public PackageIndexEntity() {}
+
+    public PackageIndexEntity(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public String getChecksum() { return checksum; }
+    public void setChecksum(String checksum) { this.checksum = checksum; }
+
+    public String getSessionId() { return sessionId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+
+    public int getPhotos() { return photos; }
+    public void setPhotos(int photos) { this.photos = photos; }
+
+    public String getDroneId() { return droneId; }
+    public void setDroneId(String droneId) { this.droneId = droneId; }
+
+    public String getOperatorId() { return operatorId; }
+    public void setOperatorId(String operatorId) { this.operatorId = operatorId; }
+
+    public String getStartTime() { return startTime; }
+    public void setStartTime(String startTime) { this.startTime = startTime; }
+
+    public String getEndTime() { return endTime; }
+    public void setEndTime(String endTime) { this.endTime = endTime; }
+
+    public String getAmbiguousFileKeysJson() { return ambiguousFileKeysJson; }
+    public void setAmbiguousFileKeysJson(String ambiguousFileKeysJson) { this.ambiguousFileKeysJson = ambiguousFileKeysJson; }
+
+    public Instant getIndexedAt() { return indexedAt; }
+    public void setIndexedAt(Instant indexedAt) { this.indexedAt = indexedAt; }
+}
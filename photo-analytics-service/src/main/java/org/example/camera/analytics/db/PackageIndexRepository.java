@@ -0,0 +1,6 @@
+package org.example.camera.analytics.db;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface PackageIndexRepository extends JpaRepository<PackageIndexEntity, String> {
+}
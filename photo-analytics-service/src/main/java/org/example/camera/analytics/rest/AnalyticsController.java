@@ -2,18 +2,30 @@ package org.example.camera.analytics.rest;
 
 import org.example.camera.analytics.db.CaptureSessionEntity;
 import org.example.camera.analytics.service.AnalyticsService;
+import org.example.camera.analytics.service.PackageJobService;
+import org.example.camera.analytics.service.PackageUploadService;
+import org.example.camera.common.dto.PackageJobDto;
+import org.example.camera.common.dto.PackageUploadDto;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+
 @RestController
 @RequestMapping("/api/analytics")
 public class AnalyticsController {
 
     private final AnalyticsService service;
+    private final PackageJobService jobs;
+    private final PackageUploadService uploads;
 
-    public AnalyticsController(AnalyticsService service) {
+    public AnalyticsController(AnalyticsService service, PackageJobService jobs, PackageUploadService uploads) {
         this.service = service;
+        this.jobs = jobs;
+        this.uploads = uploads;
     }
 
     @PostMapping("/sessions")
@@ -28,12 +40,77 @@ public class AnalyticsController {
 
     @PostMapping(value = "/sessions/{id}/manifest", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public String uploadManifest(@PathVariable String id, @RequestPart("manifest") MultipartFile manifest) throws Exception {
-        int photos = service.submitManifest(id, manifest.getInputStream());
+        InputStream xml = manifest.getInputStream();
+        int photos = jobs.runExclusive(id, () -> service.submitManifest(id, xml));
         return "OK, photos=" + photos;
     }
+    // синхронная обработка занимает сессию так же, как задача: пока по сессии идёт другая обработка — 409
     @PostMapping(value = "/sessions/{id}/package", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public String uploadPackage(@PathVariable String id, @RequestPart("package") MultipartFile zip) throws Exception {
-        AnalyticsService.PackageSubmitResult r = service.submitPackage(id, zip.getInputStream());
-        return "OK, photos=" + r.photos + ", checksum=" + r.packageChecksum;
+        InputStream in = zip.getInputStream();
+        return describe(jobs.runExclusive(id, () -> service.submitPackage(id, in)));
+    }
+
+    // Асинхронный режим: пакет принимается на диск, обработка — в фоне; прогресс по GET /jobs/{jobId}
+    @PostMapping(value = "/sessions/{id}/package/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<PackageJobDto> submitPackageJob(@PathVariable String id, @RequestPart("package") MultipartFile zip) throws Exception {
+        PackageJobDto job = jobs.submit(id, zip.getInputStream());
+        return ResponseEntity.accepted()
+                .header("Location", "/api/analytics/jobs/" + job.jobId)
+                .body(job);
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public PackageJobDto getJob(@PathVariable String jobId) {
+        return jobs.get(jobId);
+    }
+
+    // Возобновляемая загрузка: создать → PUT диапазонов (Content-Range) в любом порядке → complete
+    @PostMapping("/sessions/{id}/uploads")
+    public ResponseEntity<PackageUploadDto> createUpload(@PathVariable String id, @RequestParam long size) {
+        PackageUploadDto u = uploads.create(id, size);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header("Location", "/api/analytics/uploads/" + u.uploadId)
+                .body(u);
+    }
+
+    @GetMapping("/uploads/{uploadId}")
+    public PackageUploadDto getUpload(@PathVariable String uploadId) {
+        return uploads.get(uploadId);
+    }
+
+    @PutMapping("/uploads/{uploadId}")
+    public PackageUploadDto putUploadRange(@PathVariable String uploadId,
+                                           @RequestHeader(value = "Content-Range", required = false) String contentRange,
+                                           InputStream body) {
+        return uploads.write(uploadId, contentRange, body);
+    }
+
+    @DeleteMapping("/uploads/{uploadId}")
+    public ResponseEntity<Void> cancelUpload(@PathVariable String uploadId) {
+        uploads.cancel(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    // sha256 (необязательно) — контрольная сумма на стороне клиента
+    @PostMapping("/uploads/{uploadId}/complete")
+    public String completeUpload(@PathVariable String uploadId, @RequestParam(required = false) String sha256) {
+        return describe(uploads.complete(uploadId, sha256));
+    }
+
+    @PostMapping("/uploads/{uploadId}/complete/jobs")
+    public ResponseEntity<PackageJobDto> completeUploadAsJob(@PathVariable String uploadId,
+                                                             @RequestParam(required = false) String sha256) {
+        PackageJobDto job = uploads.completeAsJob(uploadId, sha256);
+        return ResponseEntity.accepted()
+                .header("Location", "/api/analytics/jobs/" + job.jobId)
+                .body(job);
+    }
+
+    private static String describe(AnalyticsService.PackageSubmitResult r) {
+        String out = "OK, photos=" + r.photos + ", checksum=" + r.packageChecksum;
+        if (!r.ambiguousFileKeys.isEmpty()) out += ", ambiguousFileKeys=" + r.ambiguousFileKeys;
+        if (r.duplicateOf != null) out += ", duplicateOf=" + r.duplicateOf;
+        return out;
     }
 }
@@ -1,53 +1,161 @@
 package org.example.camera.analytics.rest;
 
-import org.example.camera.analytics.db.AnalysisResultEntity;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.example.camera.analytics.db.AnalysisResultRepository;
+import org.example.camera.analytics.db.AnalysisResultView;
+import org.example.camera.analytics.db.CaptureSessionEntity;
+import org.example.camera.analytics.db.CaptureSessionRepository;
 import org.example.camera.common.dto.AnalysisResultDto;
+import org.example.camera.common.dto.AnalysisResultPageDto;
+import org.example.camera.common.time.XsDateTime;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.DateTimeException;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 @RestController
 @RequestMapping("/api/analytics")
 public class AnalyticsQueryController {
 
+    // сколько строк читаем за раз при потоковой выдаче всей сессии
+    private static final int STREAM_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_LIMIT = 10000;
+
     private final AnalysisResultRepository results;
+    private final CaptureSessionRepository sessions;
+    private final ObjectMapper mapper;
 
-    public AnalyticsQueryController(AnalysisResultRepository results) {
+    public AnalyticsQueryController(AnalysisResultRepository results, CaptureSessionRepository sessions,
+                                    ObjectMapper mapper) {
         this.results = results;
+        this.sessions = sessions;
+        this.mapper = mapper;
     }
 
+    /**
+     * Весь анализ сессии JSON-массивом (по возрастанию fileKey) или окно времени съёмки [from, to)
+     * (по возрастанию времени, при равном — fileKey). Массив пишется в ответ по мере чтения keyset-страниц —
+     * в памяти не больше одной страницы. 404 — у сессии нет анализа; пустое окно при наличии анализа — [].
+     */
     @GetMapping("/sessions/{sessionId}/analysis")
-    public List<AnalysisResultDto> getSessionAnalysis(@PathVariable String sessionId) {
+    public ResponseEntity<StreamingResponseBody> getSessionAnalysis(@PathVariable String sessionId,
+                                                                    @RequestParam(value = "from", required = false) String from,
+                                                                    @RequestParam(value = "to", required = false) String to,
+                                                                    @RequestParam(value = "after", required = false) String after) {
+        if (after != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after requires limit");
+        }
+        String ownerId = resolveOwner(sessionId);
+
+        // окно времени съёмки — выборка по индексу (sessionId, takenAtEpochMillis)
+        if (from != null || to != null) {
+            long fromMs = (from != null) ? parseTimeParam("from", from) : Long.MIN_VALUE;
+            long toMs = (to != null) ? parseTimeParam("to", to) : Long.MAX_VALUE;
+            List<AnalysisResultView> first = results.findTakenBetween(ownerId, fromMs, "", toMs, Limit.of(STREAM_PAGE_SIZE));
+            if (first.isEmpty() && page(ownerId, "", 1).isEmpty()) throw analysisNotFound(sessionId);
+            return json(out -> writeArray(out, first, last -> {
+                AnalysisResultView v = last.get(last.size() - 1);
+                return results.findTakenBetween(ownerId, v.getTakenAtEpochMillis(), v.getFileKey(), toMs,
+                        Limit.of(STREAM_PAGE_SIZE));
+            }));
+        }
+
+        List<AnalysisResultView> first = page(ownerId, "", STREAM_PAGE_SIZE);
+        if (first.isEmpty()) throw analysisNotFound(sessionId);
+        return json(out -> writeArray(out, first,
+                last -> page(ownerId, last.get(last.size() - 1).getFileKey(), STREAM_PAGE_SIZE)));
+    }
+
+    /** Одна keyset-страница: до limit результатов с fileKey > after; nextAfter — курсор следующей. */
+    @GetMapping(value = "/sessions/{sessionId}/analysis", params = "limit")
+    public AnalysisResultPageDto getSessionAnalysisPage(@PathVariable String sessionId,
+                                                        @RequestParam("limit") int limit,
+                                                        @RequestParam(value = "after", required = false) String after,
+                                                        @RequestParam(value = "from", required = false) String from,
+                                                        @RequestParam(value = "to", required = false) String to) {
+        if (from != null || to != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit/after cannot be combined with from/to");
+        }
+        if (limit < 1 || limit > MAX_PAGE_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be 1.." + MAX_PAGE_LIMIT);
+        }
+        String ownerId = resolveOwner(sessionId);
+
+        List<AnalysisResultView> rows = page(ownerId, (after != null) ? after : "", limit);
+        if (rows.isEmpty() && after == null) throw analysisNotFound(sessionId);
+
+        AnalysisResultPageDto dto = new AnalysisResultPageDto();
+        dto.sessionId = sessionId;
+        for (AnalysisResultView v : rows) dto.items.add(toDto(v));
+        if (rows.size() == limit) dto.nextAfter = rows.get(rows.size() - 1).getFileKey();
+        return dto;
+    }
+
+    private String resolveOwner(String sessionId) {
         if (sessionId == null || sessionId.isBlank()) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sessionId is required");
         }
 
-        List<AnalysisResultDto> out = new ArrayList<>();
+        // повторно загруженный пакет: анализ хранится у сессии, где пакет обработан
+        return sessions.findById(sessionId)
+                .map(CaptureSessionEntity::getSourceSessionId)
+                .orElse(sessionId);
+    }
 
-        for (AnalysisResultEntity e : results.findAll()) {
-            if (e == null) continue;
-            if (!sessionId.equals(e.getSessionId())) continue;
+    private List<AnalysisResultView> page(String ownerId, String afterFileKey, int limit) {
+        return results.findBySessionIdAndFileKeyGreaterThanOrderByFileKeyAsc(ownerId, afterFileKey, Limit.of(limit));
+    }
 
-            AnalysisResultDto dto = new AnalysisResultDto();
-            dto.fileKey = e.getFileKey();
-            dto.distance = e.getDistanceMeters();
-            dto.speed = e.getSpeedKmh();
-            dto.confidence = e.getConfidence();
-            dto.objectType = e.getObjectType();
-            dto.modelVersion = e.getModelVersion();
+    // чтобы на защите было понятно, что “нет данных”, а не “сломалось”
+    private static ResponseStatusException analysisNotFound(String sessionId) {
+        return new ResponseStatusException(HttpStatus.NOT_FOUND, "analysis not found for sessionId=" + sessionId);
+    }
 
-            out.add(dto);
-        }
+    private static ResponseEntity<StreamingResponseBody> json(StreamingResponseBody body) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 
-        if (out.isEmpty()) {
-            // чтобы на защите было понятно, что “нет данных”, а не “сломалось”
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "analysis not found for sessionId=" + sessionId);
+    // nextPage по предыдущей (полной) странице читает следующую; пишем, пока очередная не окажется неполной
+    private void writeArray(OutputStream out, List<AnalysisResultView> rows,
+                            UnaryOperator<List<AnalysisResultView>> nextPage) throws IOException {
+        try (JsonGenerator gen = mapper.createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.writeStartArray();
+            while (true) {
+                for (AnalysisResultView v : rows) mapper.writeValue(gen, toDto(v));
+                if (rows.size() < STREAM_PAGE_SIZE) break;
+                rows = nextPage.apply(rows);
+            }
+            gen.writeEndArray();
         }
+    }
 
-        return out;
+    private static AnalysisResultDto toDto(AnalysisResultView v) {
+        AnalysisResultDto dto = new AnalysisResultDto();
+        dto.fileKey = v.getFileKey();
+        dto.distance = v.getDistanceMeters();
+        dto.speed = v.getSpeedKmh();
+        dto.confidence = v.getConfidence();
+        dto.objectType = v.getObjectType();
+        dto.modelVersion = v.getModelVersion();
+        return dto;
+    }
+
+    private static long parseTimeParam(String name, String value) {
+        try {
+            return XsDateTime.parseMillis(value);
+        } catch (DateTimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, name + " must be xs:dateTime: " + value, e);
+        }
     }
 }
@@ -0,0 +1,26 @@
+package org.example.camera.analytics.rest;
+
+import org.example.camera.common.dto.HttpEndpointStatsDto;
+import org.example.camera.common.http.InterServiceHttpClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/analytics")
+public class HttpClientStatsController {
+
+    private final InterServiceHttpClient http;
+
+    public HttpClientStatsController(InterServiceHttpClient http) {
+        this.http = http;
+    }
+
+    // гистограммы длительностей исходящих вызовов по endpoint
+    @GetMapping("/http-client/stats")
+    public List<HttpEndpointStatsDto> stats() {
+        return http.stats();
+    }
+}
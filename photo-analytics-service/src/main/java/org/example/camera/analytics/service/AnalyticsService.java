@@ -1,56 +1,113 @@
 package org.example.camera.analytics.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.example.camera.analytics.db.AnalysisResultEntity;
 import org.example.camera.analytics.db.AnalysisResultRepository;
 import org.example.camera.analytics.db.CaptureSessionEntity;
 import org.example.camera.analytics.db.CaptureSessionRepository;
-import org.example.camera.analytics.xml.ManifestStaxParser;
+import org.example.camera.analytics.db.PackageIndexEntity;
+import org.example.camera.analytics.db.PackageIndexRepository;
+import org.example.camera.analytics.xml.ValidatingManifestReader;
+import org.example.camera.analytics.xml.ValidatingManifestReader.ManifestHeader;
+import org.example.camera.analytics.xml.ValidatingManifestReader.ManifestPhoto;
 import org.example.camera.common.dto.AnalysisResultDto;
-import org.example.camera.common.dto.CatalogImportRequestDto;
 import org.example.camera.common.dto.ManifestDto;
 import org.example.camera.common.dto.PhotoDto;
+import org.example.camera.common.time.XsDateTime;
+import org.example.camera.common.xml.XmlValidationException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
-import org.xml.sax.*;
-
-import javax.xml.XMLConstants;
-import javax.xml.parsers.SAXParserFactory;
-import javax.xml.transform.sax.SAXSource;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
+
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.time.DateTimeException;
 import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 @Service
 public class AnalyticsService {
 
-    private static final String MANIFEST_XSD = "contracts/manifest/manifest.xsd";
-    private static final String MANIFEST_DTD = "contracts/manifest/manifest.dtd";
+    // сколько fileKey перечислять в сообщении об ошибке целостности пакета
+    private static final int MAX_REPORTED_FILE_KEYS = 1000;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<LinkedHashMap<String, List<String>>> AMBIGUOUS_TYPE = new TypeReference<>() { };
 
     private final CaptureSessionRepository sessions;
     private final AnalysisResultRepository resultsRepo;
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ManifestStaxParser parser = new ManifestStaxParser();
-
-    @Value("${app.catalog.base-url}")
-    private String catalogBaseUrl;
-
-    public AnalyticsService(CaptureSessionRepository sessions, AnalysisResultRepository resultsRepo) {
+    private final PackageIndexRepository packageIndex;
+    private final TransactionTemplate tx;
+    private final CatalogHandoff catalogHandoff;
+    private final ValidatingManifestReader manifestReader = new ValidatingManifestReader();
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Value("${app.package.storage-dir}")
+    private String packageStorageDir;
+
+    @Value("${app.package.max-manifest-bytes}")
+    private long maxManifestBytes;
+
+    @Value("${app.package.dedup.enabled}")
+    private boolean dedupEnabled;
+
+    @Value("${app.analysis.chunk-size}")
+    private int analysisChunkSize;
+
+    // параллельный расчёт трека для больших manifest
+    private final int parallelThreshold;
+    private final int parallelBlockSize;
+    private final int parallelSegmentSize;
+    private final ForkJoinPool analysisPool;
+
+    public AnalyticsService(CaptureSessionRepository sessions, AnalysisResultRepository resultsRepo,
+                            PackageIndexRepository packageIndex, TransactionTemplate tx, CatalogHandoff catalogHandoff,
+                            @Value("${app.analysis.parallel.threshold}") int parallelThreshold,
+                            @Value("${app.analysis.parallel.block-size}") int parallelBlockSize,
+                            @Value("${app.analysis.parallel.segment-size}") int parallelSegmentSize,
+                            @Value("${app.analysis.parallel.threads}") int parallelThreads) {
+        if (parallelThreshold < 0 || parallelBlockSize < 1 || parallelSegmentSize < 1 || parallelThreads < 0) {
+            throw new IllegalArgumentException("app.analysis.parallel.* must be positive (threshold, threads: >= 0)");
+        }
         this.sessions = sessions;
         this.resultsRepo = resultsRepo;
+        this.packageIndex = packageIndex;
+        this.tx = tx;
+        this.catalogHandoff = catalogHandoff;
+        this.parallelThreshold = parallelThreshold;
+        this.parallelBlockSize = parallelBlockSize;
+        this.parallelSegmentSize = parallelSegmentSize;
+
+        int threads = (parallelThreads > 0) ? parallelThreads : Runtime.getRuntime().availableProcessors();
+        this.analysisPool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("analysis-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        analysisPool.shutdown();
     }
 
     public CaptureSessionEntity startSession(String droneId, String operatorId) {
@@ -76,346 +133,449 @@ public class AnalyticsService {
 
         byte[] xmlBytes = readAllBytesOr400(manifestXml, "cannot read manifest");
 
-        // XSD обязательно
-        validateManifestXsd(xmlBytes);
+        // XSD обязательно, DTD только если DOCTYPE есть (чтобы не ломать старые файлы) — один проход
+        try (ManifestScan scan = new ManifestScan(null, packageStorageRoot())) {
+            scan.header = readManifest(xmlBytes, ValidatingManifestReader.hasDoctype(xmlBytes), scan);
 
-        // DTD валидируем только если DOCTYPE есть (чтобы не ломать старые файлы)
-        if (containsDoctype(xmlBytes)) {
-            validateManifestDtd(xmlBytes);
+            return processManifest(sessionId, s, xmlBytes, scan, StageListener.NONE);
         }
-
-        return processParsedManifest(sessionId, s, xmlBytes, null);
     }
 
-    // Новый путь: ZIP пакет
+    // Новый путь: ZIP пакет (потоково на диск + checksum, затем central directory)
     public PackageSubmitResult submitPackage(String sessionId, InputStream zipStream) {
-        if (zipStream == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "package zip is required");
+        return processPackage(spoolPackage(sessionId, zipStream), StageListener.NONE);
+    }
 
-        CaptureSessionEntity s = getSession(sessionId);
+    // Приём пакета на диск: выполняется на потоке запроса, т.к. multipart-поток живёт только в его рамках
+    public SpooledPackage spoolPackage(String sessionId, InputStream zipStream) {
+        if (zipStream == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "package zip is required");
 
-        byte[] zipBytes = readAllBytesOr400(zipStream, "cannot read zip package");
-        String checksum = sha256Hex(zipBytes);
+        getSession(sessionId);
 
-        ZipExtract extract = extractPackage(zipBytes);
+        SpooledPackage p = extractPackage(zipStream, packageStorageRoot());
+        p.sessionId = sessionId;
+        return p;
+    }
 
-        if (extract.manifestXmlBytes == null || extract.manifestXmlBytes.length == 0) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml not found in zip");
+    /**
+     * Пакет, уже собранный на диске возобновляемой загрузкой (checksum посчитан при приёме):
+     * данные не копируются и не перечитываются — только central directory. Файл переходит во владение пакета.
+     */
+    public SpooledPackage adoptPackage(String sessionId, Path file, String checksum) {
+        SpooledPackage z = new SpooledPackage();
+        z.packageFile = file;
+        z.checksum = checksum;
+        try {
+            getSession(sessionId);
+        } catch (RuntimeException ex) {
+            discardPackage(z);
+            throw ex;
         }
+        readPackageIndex(z);
+        z.sessionId = sessionId;
+        return z;
+    }
 
-        // Для пакетного сценария DOCTYPE обязателен (ЛР1)
-        if (!containsDoctype(extract.manifestXmlBytes)) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml must contain DOCTYPE for DTD validation (LR1)");
+    // Обработка принятого пакета: валидация → анализ → сохранение → catalog; после каждого статуса — listener
+    public PackageSubmitResult processPackage(SpooledPackage extract, StageListener listener) {
+        try (ManifestScan scan = new ManifestScan(extract.entries, packageStorageRoot())) {
+            return processPackage(extract, scan, listener);
         }
+    }
 
-        validateManifestXsd(extract.manifestXmlBytes);
-        validateManifestDtd(extract.manifestXmlBytes);
+    private PackageSubmitResult processPackage(SpooledPackage extract, ManifestScan scan, StageListener listener) {
+        String sessionId = extract.sessionId;
+        CaptureSessionEntity s;
+        try {
+            s = getSession(sessionId);
 
-        // checksum пакета сохраняем в сессию
-        s.setPackageChecksum(checksum);
-        s.setStatus("PACKAGE_VALIDATED");
-        sessions.save(s);
+            // тот же пакет уже обработан: итог берём из индекса, без валидации, анализа и catalog
+            PackageIndexEntity known = findProcessedPackage(extract.checksum);
+            if (known != null) return relinkProcessedPackage(s, known, listener);
 
-        int photos = processParsedManifest(sessionId, s, extract.manifestXmlBytes, extract.entryNames);
+            if (extract.manifestXmlBytes == null || extract.manifestXmlBytes.length == 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml not found in zip");
+            }
 
-        return new PackageSubmitResult(photos, checksum);
-    }
+            // Для пакетного сценария DOCTYPE обязателен (ЛР1)
+            if (!ValidatingManifestReader.hasDoctype(extract.manifestXmlBytes)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml must contain DOCTYPE for DTD validation (LR1)");
+            }
 
-    private int processParsedManifest(String sessionId, CaptureSessionEntity s, byte[] manifestXmlBytes, Set<String> zipEntries) {
-        ManifestStaxParser.Manifest m = parser.parse(new ByteArrayInputStream(manifestXmlBytes));
+            scan.header = readManifest(extract.manifestXmlBytes, true, scan);
 
-        // целостность: данные из manifest должны совпасть с session (если заданы)
-        if (m.droneId != null && s.getDroneId() != null && !m.droneId.equals(s.getDroneId())) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                    "droneId mismatch: session=" + s.getDroneId() + ", manifest=" + m.droneId);
-        }
-        if (m.operatorId != null && s.getOperatorId() != null && !m.operatorId.equals(s.getOperatorId())) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                    "operatorId mismatch: session=" + s.getOperatorId() + ", manifest=" + m.operatorId);
+            // пакет валиден — сохраняем в хранилище по содержимому (одинаковые пакеты — один файл)
+            commitPackage(extract, packageStorageRoot().resolve(extract.checksum + ".zip"));
+        } finally {
+            discardPackage(extract);
         }
 
-        // если в manifest есть start/end, можно синхронизировать в entity (не ломает логику)
-        applyTimesIfParsable(s, m);
-
-        s.setEndTime(Instant.now());
-        s.setStatus("MANIFEST_PARSED");
-        sessions.save(s);
+        // checksum пакета сохраняем в сессию
+        s.setPackageChecksum(extract.checksum);
+        markStage(s, "PACKAGE_VALIDATED", listener);
 
-        // проверка “пакетности”: если пришёл ZIP — все fileKey должны существовать в zip
-        if (zipEntries != null) {
-            for (ManifestStaxParser.ManifestPhoto p : m.photos) {
-                if (p == null || p.fileKey == null || p.fileKey.isBlank()) {
-                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo.fileKey is required");
-                }
-                if (!zipContains(zipEntries, p.fileKey)) {
-                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "zip package missing file: " + p.fileKey);
-                }
-            }
-        }
+        int photos = processManifest(sessionId, s, extract.manifestXmlBytes, scan, listener);
 
-        // DTO manifest
-        ManifestDto manifestDto = toManifestDto(m, s);
+        if (dedupEnabled) indexProcessedPackage(s, extract.checksum, scan);
+        return new PackageSubmitResult(photos, extract.checksum, scan.ambiguous, null);
+    }
 
-        // расчёт анализа (без заглушек)
-        List<AnalysisResultDto> analysis = buildAnalysisResults(manifestDto);
+    // запись индекса действительна, пока исходная сессия держит этот пакет в статусе CATALOG_SENT
+    private PackageIndexEntity findProcessedPackage(String checksum) {
+        if (!dedupEnabled || checksum == null) return null;
 
-        // сохранить анализ в БД (как данные, idempotent по recordId)
-        saveAnalysisResults(sessionId, analysis);
+        PackageIndexEntity known = packageIndex.findById(checksum).orElse(null);
+        if (known == null) return null;
 
-        s.setStatus("ANALYSIS_SAVED");
-        sessions.save(s);
+        CaptureSessionEntity source = sessions.findById(known.getSessionId()).orElse(null);
+        if (source == null || !checksum.equals(source.getPackageChecksum()) || !"CATALOG_SENT".equals(source.getStatus())) {
+            return null;
+        }
+        return known;
+    }
 
-        // отправить в catalog единым контрактом
-        CatalogImportRequestDto req = new CatalogImportRequestDto();
-        req.sessionId = s.getSessionId();
-        req.manifest = manifestDto;
-        req.analysisResults = analysis;
+    private PackageSubmitResult relinkProcessedPackage(CaptureSessionEntity s, PackageIndexEntity known, StageListener listener) {
+        ManifestHeader h = new ManifestHeader();
+        h.droneId = known.getDroneId();
+        h.operatorId = known.getOperatorId();
+        h.startTime = known.getStartTime();
+        h.endTime = known.getEndTime();
 
+        s.setPackageChecksum(known.getChecksum());
+        markStage(s, "PACKAGE_VALIDATED", listener);
         try {
-            restTemplate.postForEntity(
-                    catalogBaseUrl + "/api/catalog/import",
-                    req,
-                    Void.class
-            );
-        } catch (RestClientException ex) {
-            s.setStatus("CATALOG_CALL_FAILED");
+            checkManifestMatchesSession(h, s);
+        } catch (RuntimeException ex) {
             sessions.save(s);
-            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Cannot call catalog-service: " + ex.getMessage(), ex);
+            throw ex;
         }
 
-        s.setStatus("CATALOG_SENT");
-        sessions.save(s);
+        applyTimesIfParsable(s, h);
+        s.setEndTime(Instant.now());
 
-        return (m.photos != null) ? m.photos.size() : 0;
-    }
+        // повтор в ту же сессию ничего не меняет; в другой — ссылка на анализ исходной сессии
+        boolean sameSession = known.getSessionId().equals(s.getSessionId());
+        s.setSourceSessionId(sameSession ? null : known.getSessionId());
+        updateStatus(s, "CATALOG_SENT", listener);
 
-    private ManifestDto toManifestDto(ManifestStaxParser.Manifest m, CaptureSessionEntity s) {
-        ManifestDto dto = new ManifestDto();
+        return new PackageSubmitResult(known.getPhotos(), known.getChecksum(), readAmbiguous(known), known.getSessionId());
+    }
 
-        // ожидаемые поля общего контракта (public fields)
-        dto.droneId = m.droneId != null ? m.droneId : s.getDroneId();
-        dto.operatorId = m.operatorId != null ? m.operatorId : s.getOperatorId();
-        dto.startTime = m.startTime;
-        dto.endTime = m.endTime;
-        dto.packageChecksum = s.getPackageChecksum();
+    private void indexProcessedPackage(CaptureSessionEntity s, String checksum, ManifestScan scan) {
+        PackageIndexEntity e = new PackageIndexEntity(checksum);
+        e.setSessionId(s.getSessionId());
+        e.setPhotos(scan.photos);
+        e.setDroneId(scan.header.droneId);
+        e.setOperatorId(scan.header.operatorId);
+        e.setStartTime(scan.header.startTime);
+        e.setEndTime(scan.header.endTime);
+        try {
+            e.setAmbiguousFileKeysJson(scan.ambiguous.isEmpty() ? null : JSON.writeValueAsString(scan.ambiguous));
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("cannot serialize ambiguousFileKeys: " + ex.getMessage(), ex);
+        }
+        e.setIndexedAt(Instant.now());
+        packageIndex.save(e);
+    }
 
-        if (m.photos != null) {
-            for (ManifestStaxParser.ManifestPhoto p : m.photos) {
-                PhotoDto pd = new PhotoDto();
-                pd.fileKey = p.fileKey;
-                pd.takenAt = p.takenAt;
-                pd.latitude = p.latitude;
-                pd.longitude = p.longitude;
-                pd.altitude = p.altitude;
-                dto.photos.add(pd);
-            }
+    private static Map<String, List<String>> readAmbiguous(PackageIndexEntity e) {
+        if (e.getAmbiguousFileKeysJson() == null) return Map.of();
+        try {
+            return JSON.readValue(e.getAmbiguousFileKeysJson(), AMBIGUOUS_TYPE);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("corrupt package index for checksum=" + e.getChecksum() + ": " + ex.getMessage(), ex);
         }
-        return dto;
     }
 
-    private void saveAnalysisResults(String sessionId, List<AnalysisResultDto> list) {
-        Instant now = Instant.now();
+    /**
+     * Фаза 1 (валидирующий проход) уже дала header, фото и итоги по ним, включая проверку данных для анализа;
+     * фаза 2 читает фото из её временного файла (manifest второй раз не разбирается): анализ, запись в БД
+     * порциями и передача в catalog порциями параллельно с анализом следующих фото.
+     */
+    private int processManifest(String sessionId, CaptureSessionEntity s, byte[] manifestXml, ManifestScan scan,
+                                StageListener listener) {
+        ManifestHeader h = scan.header;
+        try {
+            checkManifestMatchesSession(h, s);
 
-        for (AnalysisResultDto ar : list) {
-            if (ar == null || ar.fileKey == null || ar.fileKey.isBlank()) continue;
+            // если в manifest есть start/end, можно синхронизировать в entity (не ломает логику)
+            applyTimesIfParsable(s, h);
 
-            String recordId = sessionId + ":" + ar.fileKey;
+            s.setEndTime(Instant.now());
+            // анализ сессии теперь собственный
+            s.setSourceSessionId(null);
+            markStage(s, "MANIFEST_PARSED", listener);
 
-            AnalysisResultEntity e = resultsRepo.findById(recordId).orElseGet(() -> {
-                AnalysisResultEntity x = new AnalysisResultEntity(recordId);
-                x.setCreatedAt(now);
-                return x;
-            });
+            // проверка “пакетности”: если пришёл ZIP — все fileKey должны существовать в zip
+            if (scan.blankFileKey) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo.fileKey is required");
+            }
+            if (!scan.missing.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, missingFilesMessage(scan.missing));
+            }
+            // данные для анализа проверены заранее: порции в catalog уходят до конца анализа
+            if (scan.invalidPhoto != null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, scan.invalidPhoto);
+            }
+            scan.photoFile.startReading();
+        } catch (RuntimeException ex) {
+            // промежуточные статусы пишем в БД только при отказе — чтобы было видно, где остановились
+            sessions.save(s);
+            throw ex;
+        }
 
-            e.setUpdatedAt(now);
-            e.setSessionId(sessionId);
-            e.setFileKey(ar.fileKey);
-            e.setDistanceMeters(ar.distance);
-            e.setSpeedKmh(ar.speed);
-            e.setConfidence(ar.confidence);
-            e.setObjectType(ar.objectType);
-            e.setModelVersion(ar.modelVersion);
+        ManifestDto header = toManifestHeader(h, s);
 
-            resultsRepo.save(e);
-        }
-    }
+        // пустой manifest — всё равно одна (пустая) порция: catalog проверяет header
+        int chunkSize = catalogHandoff.chunkSize();
+        int totalChunks = Math.max(1, (scan.photos + chunkSize - 1) / chunkSize);
+        CatalogHandoff.Transfer transfer = catalogHandoff.open(s, handoffKey(manifestXml, chunkSize), header, totalChunks);
 
-    private List<AnalysisResultDto> buildAnalysisResults(ManifestDto manifest) {
-        List<AnalysisResultDto> out = new ArrayList<>();
-        if (manifest == null || manifest.photos == null) return out;
+        // анализ (idempotent по recordId): каждая порция — своей транзакцией с batch-вставкой
+        try {
+            boolean parallel = parallelThreshold > 0 && scan.photos >= parallelThreshold;
+            analyzeAndHandOff(sessionId, scan.photoFile, parallel, transfer);
+        } catch (RuntimeException ex) {
+            transfer.abort();
+            sessions.save(s);
+            throw ex;
+        }
+        updateStatus(s, "ANALYSIS_SAVED", listener);
 
-        PhotoDto prev = null;
-        Epoch prevT = null;
+        // дождаться подтверждения catalog по всем порциям
+        try {
+            transfer.finish();
+        } catch (ResponseStatusException ex) {
+            updateStatus(s, "CATALOG_CALL_FAILED", listener);
+            throw ex;
+        }
 
-        for (PhotoDto cur : manifest.photos) {
-            if (cur == null || cur.fileKey == null || cur.fileKey.isBlank()) {
-                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo.fileKey is required");
-            }
-            if (cur.takenAt == null || cur.takenAt.isBlank()) {
-                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "photo.takenAt is required for fileKey=" + cur.fileKey);
-            }
+        updateStatus(s, "CATALOG_SENT", listener);
 
-            Epoch curT = parseTime(cur.takenAt);
+        return scan.photos;
+    }
 
-            double distanceMeters = 0.0;
-            double speedKmh = 0.0;
+    // целостность: данные из manifest должны совпасть с session (если заданы)
+    private static void checkManifestMatchesSession(ManifestHeader h, CaptureSessionEntity s) {
+        if (h.droneId != null && s.getDroneId() != null && !h.droneId.equals(s.getDroneId())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "droneId mismatch: session=" + s.getDroneId() + ", manifest=" + h.droneId);
+        }
+        if (h.operatorId != null && s.getOperatorId() != null && !h.operatorId.equals(s.getOperatorId())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "operatorId mismatch: session=" + s.getOperatorId() + ", manifest=" + h.operatorId);
+        }
+    }
 
-            if (prev != null && prevT != null && curT != null) {
-                long dtMillis = curT.ms - prevT.ms;
-                if (dtMillis > 0) {
-                    distanceMeters = haversineMeters(prev.latitude, prev.longitude, cur.latitude, cur.longitude);
-                    double speedMps = distanceMeters / (dtMillis / 1000.0);
-                    speedKmh = speedMps * 3.6;
-                }
+    // фото (из файла первого прохода) → анализ → порция в БД → порция в catalog
+    private void analyzeAndHandOff(String sessionId, ScannedPhotos photos, boolean parallel, CatalogHandoff.Transfer transfer) {
+        Instant now = Instant.now();
+        // блок расчёта — порция записи в БД; в параллельном режиме крупнее и при записи режется на порции
+        int blockSize = parallel ? parallelBlockSize : analysisChunkSize;
+        TrajectoryEngine track = new TrajectoryEngine(blockSize);
+        List<PhotoDto> block = new ArrayList<>(blockSize);
+        CatalogChunker chunker = new CatalogChunker(transfer, catalogHandoff.chunkSize());
+
+        for (int i = 0, n = photos.size(); i < n; i++) {
+            PhotoDto pd = photos.next();
+            // фото проверены первым проходом (ManifestScan), время уже разобрано
+            track.add(photos.lastTakenAtMillis(), pd.latitude, pd.longitude);
+            block.add(pd);
+            if (track.isFull()) {
+                analyzeBlock(sessionId, track, block, parallel, chunker, now);
+                block.clear();
             }
+        }
 
-            AnalysisResultDto ar = new AnalysisResultDto();
-            ar.fileKey = cur.fileKey;
-            ar.distance = distanceMeters;
-            ar.speed = speedKmh;
+        analyzeBlock(sessionId, track, block, parallel, chunker, now);
+        chunker.finish();
+    }
 
-            int ok = 0;
-            int total = 3;
-            if (!cur.fileKey.isBlank()) ok++;
-            if (curT != null) ok++;
-            if (isValidLatLon(cur.latitude, cur.longitude)) ok++;
-            ar.confidence = (double) ok / (double) total;
+    // block — фото, добавленные в track; результаты → БД порциями (транзакция на порцию) → catalog
+    private void analyzeBlock(String sessionId, TrajectoryEngine track, List<PhotoDto> block,
+                              boolean parallel, CatalogChunker chunker, Instant now) {
+        int n = track.size();
+        if (n == 0) return;
+        if (parallel) {
+            track.compute(analysisPool, parallelSegmentSize);
+        } else {
+            track.compute();
+        }
 
+        List<AnalysisResultDto> results = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            AnalysisResultDto ar = new AnalysisResultDto();
+            ar.fileKey = block.get(i).fileKey;
+            ar.distance = track.distance(i);
+            ar.speed = track.speed(i);
+            ar.confidence = track.confidence(i);
             // objectType/modelVersion не задаём, если реально не считаются
-            out.add(ar);
+            results.add(ar);
+        }
+        track.reset();
 
-            prev = cur;
-            prevT = curT;
+        for (int from = 0; from < n; from += analysisChunkSize) {
+            int to = Math.min(n, from + analysisChunkSize);
+            List<PhotoDto> photos = block.subList(from, to);
+            List<AnalysisResultDto> chunk = results.subList(from, to);
+            tx.executeWithoutResult(status -> saveAnalysisResults(sessionId, photos, chunk, now));
         }
 
-        return out;
+        // в catalog уходят только результаты, уже записанные в БД
+        for (int i = 0; i < n; i++) {
+            chunker.add(block.get(i), results.get(i));
+        }
     }
 
-    private static boolean isValidLatLon(double lat, double lon) {
-        return lat >= -90.0 && lat <= 90.0 && lon >= -180.0 && lon <= 180.0;
-    }
+    // порции в catalog ровно по chunkSize фото — их состав зависит только от manifest, не от блоков анализа
+    private static final class CatalogChunker {
+        private final CatalogHandoff.Transfer transfer;
+        private final int chunkSize;
+        private List<PhotoDto> photos;
+        private List<AnalysisResultDto> results;
+
+        CatalogChunker(CatalogHandoff.Transfer transfer, int chunkSize) {
+            this.transfer = transfer;
+            this.chunkSize = chunkSize;
+            this.photos = new ArrayList<>(chunkSize);
+            this.results = new ArrayList<>(chunkSize);
+        }
 
-    private static class Epoch {
-        final long ms;
-        Epoch(long ms) { this.ms = ms; }
-    }
+        void add(PhotoDto pd, AnalysisResultDto ar) {
+            photos.add(pd);
+            results.add(ar);
+            if (photos.size() >= chunkSize) {
+                transfer.send(photos, results);
+                photos = new ArrayList<>(chunkSize);
+                results = new ArrayList<>(chunkSize);
+            }
+        }
 
-    private static Epoch parseTime(String s) {
-        try {
-            return new Epoch(Instant.parse(s).toEpochMilli());
-        } catch (DateTimeParseException ignored) {
-            try {
-                return new Epoch(OffsetDateTime.parse(s).toInstant().toEpochMilli());
-            } catch (DateTimeParseException e) {
-                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid takenAt dateTime: " + s, e);
+        // пустой manifest — всё равно одна (пустая) порция
+        void finish() {
+            if (!photos.isEmpty() || transfer.chunks() == 0) {
+                transfer.send(photos, results);
             }
         }
     }
 
-    private static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
-        final double R = 6371000.0;
-        double phi1 = Math.toRadians(lat1);
-        double phi2 = Math.toRadians(lat2);
-        double dPhi = Math.toRadians(lat2 - lat1);
-        double dLambda = Math.toRadians(lon2 - lon1);
+    // содержимое порций определяется manifest и размером порции
+    private static String handoffKey(byte[] manifestXml, int chunkSize) {
+        MessageDigest md = newSha256();
+        md.update(manifestXml);
+        md.update(Integer.toString(chunkSize).getBytes(StandardCharsets.US_ASCII));
+        return toHex(md.digest());
+    }
 
-        double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
-                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+    private void updateStatus(CaptureSessionEntity s, String status, StageListener listener) {
+        s.setStatus(status);
+        sessions.save(s);
+        listener.onStage(status);
+    }
 
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
+    // статус только в памяти: будет записан вместе со следующим сохранением сессии
+    private static void markStage(CaptureSessionEntity s, String status, StageListener listener) {
+        s.setStatus(status);
+        if (listener != null) listener.onStage(status);
     }
 
-    private void validateManifestXsd(byte[] xmlBytes) {
-        try (InputStream xsd = getClass().getClassLoader().getResourceAsStream(MANIFEST_XSD)) {
-            if (xsd == null) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "XSD not found: " + MANIFEST_XSD);
-            }
+    private static ManifestDto toManifestHeader(ManifestHeader h, CaptureSessionEntity s) {
+        ManifestDto dto = new ManifestDto();
 
-            SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-            try {
-                sf.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-                sf.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-            } catch (Exception ignored) {}
+        // ожидаемые поля общего контракта (public fields); photos идут потоком отдельно
+        dto.droneId = h.droneId != null ? h.droneId : s.getDroneId();
+        dto.operatorId = h.operatorId != null ? h.operatorId : s.getOperatorId();
+        dto.startTime = h.startTime;
+        dto.endTime = h.endTime;
+        dto.packageChecksum = s.getPackageChecksum();
+        return dto;
+    }
 
-            Schema schema = sf.newSchema(new StreamSource(xsd));
-            Validator validator = schema.newValidator();
+    // photos.get(i) — фото, по которому посчитан list.get(i)
+    private void saveAnalysisResults(String sessionId, List<PhotoDto> photos, List<AnalysisResultDto> list, Instant now) {
+        Map<String, Integer> byId = new LinkedHashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            AnalysisResultDto ar = list.get(i);
+            if (ar == null || ar.fileKey == null || ar.fileKey.isBlank()) continue;
+            byId.put(sessionId + ":" + ar.fileKey, i); // повтор fileKey — последний выигрывает, как при поштучном save
+        }
+        if (byId.isEmpty()) return;
 
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-            spf.setNamespaceAware(true);
+        // существующие записи одним запросом, остальные — новые (insert без предварительного SELECT)
+        Map<String, AnalysisResultEntity> existing = new HashMap<>();
+        for (AnalysisResultEntity e : resultsRepo.findAllById(byId.keySet())) {
+            existing.put(e.getRecordId(), e);
+        }
 
-            // Не грузим внешние сущности/DTD при XSD-валидации
-            trySetFeature(spf, "http://xml.org/sax/features/external-general-entities", false);
-            trySetFeature(spf, "http://xml.org/sax/features/external-parameter-entities", false);
-            trySetFeature(spf, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        List<AnalysisResultEntity> batch = new ArrayList<>(byId.size());
+        for (Map.Entry<String, Integer> en : byId.entrySet()) {
+            String recordId = en.getKey();
+            AnalysisResultDto ar = list.get(en.getValue());
 
-            InputSource input = new InputSource(new ByteArrayInputStream(xmlBytes));
-            SAXSource source = new SAXSource(spf.newSAXParser().getXMLReader(), input);
+            AnalysisResultEntity e = existing.get(recordId);
+            if (e == null) {
+                e = new AnalysisResultEntity(recordId);
+                e.setCreatedAt(now);
+            }
 
-            validator.validate(source);
-        } catch (SAXParseException e) {
-            throw new ResponseStatusException(
-                    HttpStatus.BAD_REQUEST,
-                    "manifest.xml invalid by XSD: line=" + e.getLineNumber() + ", col=" + e.getColumnNumber() + ", msg=" + e.getMessage(),
-                    e
-            );
-        } catch (ResponseStatusException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml XSD validation failed: " + e.getMessage(), e);
+            e.setUpdatedAt(now);
+            e.setSessionId(sessionId);
+            e.setFileKey(ar.fileKey);
+            e.setTakenAt(photos.get(en.getValue()).takenAt);
+            e.setDistanceMeters(ar.distance);
+            e.setSpeedKmh(ar.speed);
+            e.setConfidence(ar.confidence);
+            e.setObjectType(ar.objectType);
+            e.setModelVersion(ar.modelVersion);
+
+            batch.add(e);
         }
+
+        resultsRepo.saveAll(batch);
+
+        // порция записана — отпускаем её из persistence context, чтобы он не рос с числом фото
+        em.flush();
+        em.clear();
     }
 
-    private void validateManifestDtd(byte[] xmlBytes) {
-        try (InputStream dtdStream = getClass().getClassLoader().getResourceAsStream(MANIFEST_DTD)) {
-            if (dtdStream == null) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "DTD not found: " + MANIFEST_DTD);
-            }
+    private static long parseTime(String s) {
+        try {
+            return XsDateTime.parseMillis(s);
+        } catch (DateTimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid takenAt dateTime: " + s, e);
+        }
+    }
 
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-            spf.setNamespaceAware(true);
-            spf.setValidating(true);
-
-            XMLReader reader = spf.newSAXParser().getXMLReader();
-            reader.setErrorHandler(new ErrorHandler() {
-                @Override public void warning(SAXParseException exception) throws SAXException { throw exception; }
-                @Override public void error(SAXParseException exception) throws SAXException { throw exception; }
-                @Override public void fatalError(SAXParseException exception) throws SAXException { throw exception; }
-            });
-
-            reader.setEntityResolver((publicId, systemId) -> {
-                // Разрешаем ТОЛЬКО наш manifest.dtd
-                if (systemId != null && systemId.contains("manifest.dtd")) {
-                    InputSource src = new InputSource(getClass().getClassLoader().getResourceAsStream(MANIFEST_DTD));
-                    src.setPublicId(publicId);
-                    src.setSystemId(systemId);
-                    return src;
-                }
-                throw new SAXException("External entity is not allowed: " + systemId);
-            });
+    // те же проверки, что при анализе: null — фото пригодно
+    private static String invalidPhoto(String fileKey, String takenAt) {
+        if (fileKey == null || fileKey.isBlank()) return "photo.fileKey is required";
+        if (takenAt == null || takenAt.isBlank()) return "photo.takenAt is required for fileKey=" + fileKey;
+        try {
+            parseTime(takenAt);
+        } catch (ResponseStatusException e) {
+            return e.getReason();
+        }
+        return null;
+    }
 
-            reader.parse(new InputSource(new ByteArrayInputStream(xmlBytes)));
-        } catch (SAXParseException e) {
+    private ManifestHeader readManifest(byte[] xmlBytes, boolean validateDtd, ManifestScan scan) {
+        try {
+            return manifestReader.read(xmlBytes, validateDtd, scan);
+        } catch (ValidatingManifestReader.ManifestValidationException e) {
             throw new ResponseStatusException(
                     HttpStatus.BAD_REQUEST,
-                    "manifest.xml invalid by DTD: line=" + e.getLineNumber() + ", col=" + e.getColumnNumber() + ", msg=" + e.getMessage(),
+                    "manifest.xml invalid by " + e.getGrammar() + ": line=" + e.getLineNumber() + ", col=" + e.getColumnNumber() + ", msg=" + e.getMessage(),
                     e
             );
-        } catch (ResponseStatusException e) {
-            throw e;
+        } catch (XmlValidationException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml invalid: " + e.getMessage(), e);
         } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml DTD validation failed: " + e.getMessage(), e);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "manifest.xml validation failed: " + e.getMessage(), e);
         }
     }
 
-    private static void trySetFeature(SAXParserFactory spf, String feature, boolean value) {
-        try { spf.setFeature(feature, value); } catch (Exception ignored) {}
-    }
-
-    private static boolean containsDoctype(byte[] xmlBytes) {
-        String s = new String(xmlBytes, StandardCharsets.UTF_8);
-        return s.contains("<!DOCTYPE");
-    }
-
     private static byte[] readAllBytesOr400(InputStream is, String message) {
         try {
             return is.readAllBytes();
@@ -424,54 +584,302 @@ public class AnalyticsService {
         }
     }
 
-    private static String sha256Hex(byte[] data) {
+    static String toHex(byte[] dig) {
+        StringBuilder sb = new StringBuilder(dig.length * 2);
+        for (byte b : dig) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    static MessageDigest newSha256() {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] dig = md.digest(data);
-            StringBuilder sb = new StringBuilder(dig.length * 2);
-            for (byte b : dig) sb.append(String.format("%02x", b));
-            return sb.toString();
+            return MessageDigest.getInstance("SHA-256");
         } catch (Exception e) {
             throw new IllegalStateException("SHA-256 error: " + e.getMessage(), e);
         }
     }
 
-    private static class ZipExtract {
+    private static String missingFilesMessage(Set<String> missing) {
+        if (missing.size() == 1) return "zip package missing file: " + missing.iterator().next();
+
+        StringBuilder sb = new StringBuilder("zip package missing ").append(missing.size()).append(" files: ");
+        int shown = 0;
+        for (String k : missing) {
+            if (shown == MAX_REPORTED_FILE_KEYS) {
+                sb.append(", ... (+").append(missing.size() - shown).append(" more)");
+                break;
+            }
+            if (shown > 0) sb.append(", ");
+            sb.append(k);
+            shown++;
+        }
+        return sb.toString();
+    }
+
+    // Итоги валидирующего прохода по фото и сами фото (во временном файле) — для анализа без второго разбора manifest
+    private static class ManifestScan implements Consumer<ManifestPhoto>, Closeable {
+        private final PackageEntryIndex entries;
+        ManifestHeader header;
+        int photos;
+        final ScannedPhotos photoFile;
+
+        // проверка “пакетности”: собираем все проблемы сразу, а не первую
+        boolean blankFileKey;
+        final Set<String> missing = new LinkedHashSet<>();
+        final Map<String, List<String>> ambiguous = new LinkedHashMap<>();
+        // первая проблема, на которой остановился бы анализ
+        String invalidPhoto;
+
+        ManifestScan(PackageEntryIndex entries, Path spoolDir) {
+            this.entries = entries;
+            this.photoFile = new ScannedPhotos(spoolDir);
+        }
+
+        @Override
+        public void close() {
+            photoFile.close();
+        }
+
+        @Override
+        public void accept(ManifestPhoto p) {
+            photos++;
+            if (invalidPhoto == null) invalidPhoto = invalidPhoto(p.fileKey, p.takenAt);
+            // после первой проблемы анализа не будет — фото дальше не копим
+            if (invalidPhoto == null) photoFile.add(p);
+            if (entries == null) return;
+
+            if (p.fileKey == null || p.fileKey.isBlank()) {
+                blankFileKey = true;
+                return;
+            }
+
+            List<String> found = entries.resolve(p.fileKey);
+            if (found.isEmpty()) {
+                missing.add(p.fileKey);
+            } else if (found.size() > 1) {
+                // как и раньше принимаем, но сообщаем: fileKey совпал с basename нескольких файлов
+                ambiguous.put(p.fileKey, found);
+            }
+        }
+    }
+
+    /**
+     * Фото manifest во временном файле рядом с пакетами: запись за записью, время — уже числом.
+     * Пишется валидирующим проходом, читается анализом один раз по порядку (next); close() удаляет файл.
+     * В памяти — только буферы потоков: анализ начинается лишь после проверки всего документа
+     * (невалидный manifest не оставляет следов), а держать до того все фото в памяти — O(фото).
+     */
+    private static final class ScannedPhotos implements Closeable {
+        private static final int BUFFER_BYTES = 64 * 1024;
+
+        private final Path dir;
+        private Path file;
+        private DataOutputStream out;
+        private DataInputStream in;
+        // ошибка записи не прерывает проход (sink не бросает) — её отдаёт startReading
+        private IOException writeError;
+        private int size;
+        private long lastTakenAtMillis;
+
+        ScannedPhotos(Path dir) {
+            this.dir = dir;
+        }
+
+        // takenAt уже проверен invalidPhoto
+        void add(ManifestPhoto p) {
+            if (writeError != null) return;
+            try {
+                if (out == null) {
+                    Files.createDirectories(dir);
+                    file = Files.createTempFile(dir, "photos-", ".bin");
+                    out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_BYTES));
+                }
+                writeString(out, p.fileKey);
+                writeString(out, p.takenAt);
+                out.writeLong(XsDateTime.parseMillis(p.takenAt));
+                out.writeDouble(p.latitude);
+                out.writeDouble(p.longitude);
+                out.writeDouble(p.altitude);
+                size++;
+            } catch (IOException e) {
+                writeError = e;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        // конец первого прохода: дописать файл и открыть его на чтение
+        void startReading() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                if (writeError != null) throw writeError;
+                if (file != null) {
+                    in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES));
+                }
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot spool manifest photos: " + e.getMessage(), e);
+            }
+        }
+
+        PhotoDto next() {
+            try {
+                PhotoDto pd = new PhotoDto();
+                pd.fileKey = readString(in);
+                pd.takenAt = readString(in);
+                lastTakenAtMillis = in.readLong();
+                pd.latitude = in.readDouble();
+                pd.longitude = in.readDouble();
+                pd.altitude = in.readDouble();
+                return pd;
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot read spooled manifest photos: " + e.getMessage(), e);
+            }
+        }
+
+        /** takenAt последнего фото из next() в epoch millis. */
+        long lastTakenAtMillis() {
+            return lastTakenAtMillis;
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(out);
+            closeQuietly(in);
+            out = null;
+            in = null;
+            if (file == null) return;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // временный файл не критичен
+            }
+            file = null;
+        }
+
+        private static void closeQuietly(Closeable c) {
+            if (c == null) return;
+            try { c.close(); } catch (IOException ignored) {}
+        }
+
+        // writeUTF ограничен 64 КБ — длина своим int
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            return new String(in.readNBytes(n), StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Пакет, принятый на диск, но ещё не обработанный. */
+    public static class SpooledPackage {
+        String sessionId;
         byte[] manifestXmlBytes;
-        Set<String> entryNames = new HashSet<>();
+        PackageEntryIndex entries = new PackageEntryIndex();
+        String checksum;
+        Path packageFile; // временная копия пакета, пока он не провалидирован
+    }
+
+    /**
+     * Загрузка пишется на диск одним проходом (SHA-256 считается по пути),
+     * затем имена и manifest.xml берутся из central directory без распаковки фото.
+     */
+    private SpooledPackage extractPackage(InputStream zipStream, Path storageRoot) {
+        SpooledPackage z = new SpooledPackage();
+        MessageDigest md = newSha256();
+
+        try {
+            Files.createDirectories(storageRoot);
+            z.packageFile = Files.createTempFile(storageRoot, "upload-", ".zip");
+            Files.copy(new DigestInputStream(zipStream, md), z.packageFile, StandardCopyOption.REPLACE_EXISTING);
+            z.checksum = toHex(md.digest());
+        } catch (IOException ex) {
+            discardPackage(z);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "cannot read zip package: " + ex.getMessage(), ex);
+        }
+
+        readPackageIndex(z);
+        return z;
     }
 
-    private static ZipExtract extractPackage(byte[] zipBytes) {
-        ZipExtract z = new ZipExtract();
+    // имена записей и manifest.xml — из central directory, без распаковки фото
+    private void readPackageIndex(SpooledPackage z) {
+        try (ZipFile zf = new ZipFile(z.packageFile.toFile())) {
+            ZipEntry manifest = null;
 
-        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
-            ZipEntry e;
-            while ((e = zis.getNextEntry()) != null) {
+            Enumeration<? extends ZipEntry> entries = zf.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry e = entries.nextElement();
                 if (e.isDirectory()) continue;
 
                 String name = e.getName();
-                z.entryNames.add(name);
+                z.entries.add(name);
 
                 if (name != null && name.toLowerCase(Locale.ROOT).endsWith("manifest.xml")) {
-                    z.manifestXmlBytes = zis.readAllBytes();
+                    manifest = e;
                 }
             }
-            return z;
+
+            if (manifest != null) {
+                z.manifestXmlBytes = readManifestEntry(zf, manifest);
+            }
+        } catch (ResponseStatusException ex) {
+            discardPackage(z);
+            throw ex;
         } catch (IOException ex) {
+            discardPackage(z);
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid zip: " + ex.getMessage(), ex);
         }
     }
 
-    private static boolean zipContains(Set<String> entries, String fileKey) {
-        if (entries.contains(fileKey)) return true;
-        String suffix = "/" + fileKey;
-        for (String e : entries) {
-            if (e != null && e.endsWith(suffix)) return true;
+    private byte[] readManifestEntry(ZipFile zf, ZipEntry entry) throws IOException {
+        if (entry.getSize() > maxManifestBytes) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "manifest.xml exceeds " + maxManifestBytes + " bytes");
+        }
+
+        try (InputStream in = zf.getInputStream(entry)) {
+            int limit = (int) Math.min(maxManifestBytes, Integer.MAX_VALUE - 8);
+            byte[] bytes = in.readNBytes(limit);
+            if (in.read() != -1) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "manifest.xml exceeds " + maxManifestBytes + " bytes");
+            }
+            return bytes;
         }
-        return false;
     }
 
-    private void applyTimesIfParsable(CaptureSessionEntity s, ManifestStaxParser.Manifest m) {
+    private static void commitPackage(SpooledPackage z, Path target) {
+        try {
+            Files.move(z.packageFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // rename между жёсткими ссылками на один файл ничего не делает — источник остаётся
+            Files.deleteIfExists(z.packageFile);
+            z.packageFile = null;
+        } catch (IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot store package: " + ex.getMessage(), ex);
+        }
+    }
+
+    static void discardPackage(SpooledPackage z) {
+        if (z.packageFile == null) return;
+        try {
+            Files.deleteIfExists(z.packageFile);
+        } catch (IOException ignored) {
+            // временный файл не критичен
+        }
+        z.packageFile = null;
+    }
+
+    private Path packageStorageRoot() {
+        return Path.of(packageStorageDir).toAbsolutePath().normalize();
+    }
+
+    private void applyTimesIfParsable(CaptureSessionEntity s, ManifestHeader m) {
         if (m.startTime != null) {
             try { s.setStartTime(Instant.parse(m.startTime)); } catch (Exception ignored) {}
         }
@@ -480,13 +888,27 @@ public class AnalyticsService {
         }
     }
 
+    /** Переходы статуса сессии (PACKAGE_VALIDATED … CATALOG_SENT) для наблюдателя обработки. */
+    public interface StageListener {
+        StageListener NONE = status -> { };
+
+        void onStage(String status);
+    }
+
     public static class PackageSubmitResult {
         public final int photos;
         public final String packageChecksum;
+        // fileKey → файлы пакета, с basename/суффиксом которых он совпал (коллизии)
+        public final Map<String, List<String>> ambiguousFileKeys;
+        // сессия, в которой этот пакет уже был обработан (итог взят из индекса); null — обработан сейчас
+        public final String duplicateOf;
 
-        public PackageSubmitResult(int photos, String packageChecksum) {
+        public PackageSubmitResult(int photos, String packageChecksum, Map<String, List<String>> ambiguousFileKeys,
+                                   String duplicateOf) {
             this.photos = photos;
             this.packageChecksum = packageChecksum;
+            this.ambiguousFileKeys = ambiguousFileKeys;
+            this.duplicateOf = duplicateOf;
         }
     }
 }
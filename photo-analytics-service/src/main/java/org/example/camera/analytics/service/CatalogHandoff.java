@@ -0,0 +1,174 @@
+package org.example.camera.analytics.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.camera.analytics.db.CaptureSessionEntity;
+import org.example.camera.analytics.db.CaptureSessionRepository;
+import org.example.camera.common.concurrent.WorkerThreads;
+import org.example.camera.common.dto.AnalysisResultDto;
+import org.example.camera.common.dto.CatalogImportRequestDto;
+import org.example.camera.common.dto.ManifestDto;
+import org.example.camera.common.dto.PhotoDto;
+import org.example.camera.common.http.InterServiceHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Передача результатов в catalog порциями: каждая порция — самостоятельный CatalogImportRequestDto
+ * (header manifest + свои photos/analysisResults), отправляется в фоне, пока анализ идёт дальше.
+ * Порции одной передачи уходят строго по порядку, после подтверждения каждой в сессии сдвигается
+ * watermark — повторная отправка того же manifest продолжает с первой неподтверждённой порции.
+ */
+@Component
+public class CatalogHandoff {
+
+    private final CaptureSessionRepository sessions;
+    private final RestTemplate restTemplate;
+    private final ExecutorService senders;
+
+    @Value("${app.catalog.base-url}")
+    private String catalogBaseUrl;
+
+    private final int chunkSize;
+    private final int maxInFlight;
+
+    public CatalogHandoff(CaptureSessionRepository sessions, InterServiceHttpClient http, WorkerThreads workerThreads,
+                          @Value("${app.catalog.handoff.chunk-size}") int chunkSize,
+                          @Value("${app.catalog.handoff.max-in-flight}") int maxInFlight,
+                          @Value("${app.catalog.handoff.threads}") int threads) {
+        if (chunkSize < 1 || maxInFlight < 1 || threads < 1) {
+            throw new IllegalArgumentException("app.catalog.handoff.* must be positive");
+        }
+        this.sessions = sessions;
+        // импорт в catalog идемпотентен по recordId — порцию можно повторить
+        this.restTemplate = http.idempotentRest("catalog");
+        this.chunkSize = chunkSize;
+        this.maxInFlight = maxInFlight;
+
+        // очередь не ограничиваем: её держат семафоры передач (не больше maxInFlight порций на каждую)
+        this.senders = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                workerThreads.factory("catalog-handoff-"));
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * handoffKey определяет содержимое порций (manifest + размер порции): при совпадении с незавершённой
+     * передачей сессии подтверждённые порции пропускаются, иначе watermark сбрасывается.
+     */
+    public Transfer open(CaptureSessionEntity s, String handoffKey, ManifestDto header, int totalChunks) {
+        Integer acked = s.getCatalogChunksAcked();
+        int resumeFrom = 0;
+        if (handoffKey.equals(s.getCatalogHandoffKey()) && acked != null && acked < totalChunks) {
+            resumeFrom = acked;
+        } else {
+            sessions.resetCatalogHandoff(s.getSessionId(), handoffKey);
+        }
+        return new Transfer(s.getSessionId(), handoffKey, header, totalChunks, resumeFrom);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        senders.shutdown();
+    }
+
+    public final class Transfer {
+        private final String sessionId;
+        private final String key;
+        private final ManifestDto header;
+        private final int totalChunks;
+        private final int resumeFrom;
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+
+        private int next;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private volatile ResponseStatusException failure;
+
+        private Transfer(String sessionId, String key, ManifestDto header, int totalChunks, int resumeFrom) {
+            this.sessionId = sessionId;
+            this.key = key;
+            this.header = header;
+            this.totalChunks = totalChunks;
+            this.resumeFrom = resumeFrom;
+        }
+
+        /** Сколько порций уже передано в send (включая пропущенные при возобновлении). */
+        public int chunks() {
+            return next;
+        }
+
+        /**
+         * Ставит порцию в очередь отправки; блокируется, пока неподтверждённых порций maxInFlight.
+         * Списки после вызова не изменять. После первой ошибки порции уже не отправляются.
+         */
+        public void send(List<PhotoDto> photos, List<AnalysisResultDto> results) {
+            int index = next++;
+            if (index < resumeFrom || failure != null) return;
+
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "catalog handoff interrupted", e);
+            }
+
+            CatalogImportRequestDto req = chunkRequest(photos, results);
+            tail = tail.thenRunAsync(() -> {
+                try {
+                    if (failure != null) return;
+                    restTemplate.postForObject(catalogBaseUrl + "/api/catalog/import", req, String.class);
+                    sessions.markCatalogChunksAcked(sessionId, key, index + 1);
+                } catch (RuntimeException ex) {
+                    failure = new ResponseStatusException(HttpStatus.BAD_GATEWAY,
+                            "Cannot call catalog-service: chunk " + (index + 1) + "/" + totalChunks + ": " + ex.getMessage(), ex);
+                } finally {
+                    inFlight.release();
+                }
+            }, senders);
+        }
+
+        /** Дождаться подтверждения всех порций; первая ошибка — 502. */
+        public void finish() {
+            tail.join();
+            if (failure != null) throw failure;
+        }
+
+        /** Отказ на стороне анализа: оставшиеся порции не отправлять, дождаться текущей. */
+        public void abort() {
+            if (failure == null) {
+                failure = new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "catalog handoff aborted");
+            }
+            tail.join();
+        }
+
+        private CatalogImportRequestDto chunkRequest(List<PhotoDto> photos, List<AnalysisResultDto> results) {
+            ManifestDto m = new ManifestDto();
+            m.droneId = header.droneId;
+            m.operatorId = header.operatorId;
+            m.startTime = header.startTime;
+            m.endTime = header.endTime;
+            m.packageChecksum = header.packageChecksum;
+            m.photos = photos;
+
+            CatalogImportRequestDto req = new CatalogImportRequestDto();
+            req.sessionId = sessionId;
+            req.manifest = m;
+            req.analysisResults = results;
+            return req;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.camera.analytics.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Индекс записей ZIP-пакета, строится один раз при чтении central directory.
+ * Ключи — нормализованный полный путь и все его суффиксы по границам каталогов (вплоть до basename),
+ * поэтому fileKey вида "photo.jpg" или "day1/photo.jpg" находится за O(1), а не перебором записей.
+ * Один суффикс у нескольких записей — коллизия: такой fileKey неоднозначен.
+ */
+final class PackageEntryIndex {
+
+    private final Set<String> paths = new HashSet<>();
+    // суффикс пути → записи с этим суффиксом (почти всегда одна)
+    private final Map<String, List<String>> suffixes = new HashMap<>();
+
+    void add(String entryName) {
+        String path = normalize(entryName);
+        if (path.isEmpty() || !paths.add(path)) return;
+
+        int from = 0;
+        while (true) {
+            String suffix = path.substring(from);
+            List<String> owners = suffixes.get(suffix);
+            if (owners == null) {
+                suffixes.put(suffix, List.of(path));
+            } else {
+                if (owners.size() == 1) {
+                    owners = new ArrayList<>(owners);
+                    suffixes.put(suffix, owners);
+                }
+                owners.add(path);
+            }
+
+            int slash = path.indexOf('/', from);
+            if (slash < 0) break;
+            from = slash + 1;
+        }
+    }
+
+    /** Записи, которым соответствует fileKey: полный путь важнее совпадения по суффиксу. */
+    List<String> resolve(String fileKey) {
+        String key = normalize(fileKey);
+        if (key.isEmpty()) return List.of();
+        if (paths.contains(key)) return List.of(key);
+        List<String> owners = suffixes.get(key);
+        return (owners != null) ? owners : List.of();
+    }
+
+    // "\" → "/", без ведущих "/" и "./"
+    static String normalize(String name) {
+        if (name == null) return "";
+        String s = name.trim().replace('\\', '/');
+        while (s.startsWith("/") || s.startsWith("./")) {
+            s = s.startsWith("/") ? s.substring(1) : s.substring(2);
+        }
+        return s;
+    }
+}
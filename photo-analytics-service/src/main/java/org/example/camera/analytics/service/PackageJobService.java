@@ -0,0 +1,223 @@
+package org.example.camera.analytics.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.camera.common.concurrent.WorkerThreads;
+import org.example.camera.common.dto.PackageJobDto;
+import org.example.camera.common.dto.PackageJobStageDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Асинхронная обработка ZIP-пакетов: приём на диск — в потоке запроса,
+ * дальше сессия проходит обычные статусы в ограниченном пуле воркеров.
+ * Реестр задач — в памяти; завершённые задачи хранятся ограниченно.
+ * Одна обработка на сессию: задачи и синхронные запросы (runExclusive) занимают сессию одинаково,
+ * вторая обработка той же сессии получает 409 — иначе статусы сессии и передача в catalog перемешаются.
+ */
+@Service
+public class PackageJobService {
+
+    private final AnalyticsService analytics;
+    private final ThreadPoolExecutor executor;
+    private final int retainedFinished;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    // sessionId → jobId задачи или метка синхронного запроса
+    private final Map<String, String> activeBySession = new ConcurrentHashMap<>();
+    private final Queue<String> finishedOrder = new ConcurrentLinkedQueue<>();
+
+    public PackageJobService(AnalyticsService analytics, WorkerThreads threads,
+                             @Value("${app.package.jobs.workers}") int workers,
+                             @Value("${app.package.jobs.queue-capacity}") int queueCapacity,
+                             @Value("${app.package.jobs.retained-finished}") int retainedFinished) {
+        this.analytics = analytics;
+        this.retainedFinished = retainedFinished;
+
+        this.executor = new ThreadPoolExecutor(
+                workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threads.factory("package-job-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public PackageJobDto submit(String sessionId, InputStream zipStream) {
+        return submit(sessionId, () -> analytics.spoolPackage(sessionId, zipStream));
+    }
+
+    /** spool — как пакет попадает на диск (поток запроса или собранная возобновляемая загрузка). */
+    public PackageJobDto submit(String sessionId, Supplier<AnalyticsService.SpooledPackage> spool) {
+        String jobId = UUID.randomUUID().toString();
+        claim(sessionId, jobId);
+
+        Job job = new Job(jobId, sessionId);
+        AnalyticsService.SpooledPackage pkg;
+        try {
+            pkg = spool.get();
+        } catch (RuntimeException e) {
+            activeBySession.remove(sessionId, jobId);
+            throw e;
+        }
+        job.spooled(pkg.checksum);
+
+        jobs.put(jobId, job);
+        try {
+            executor.execute(() -> run(job, pkg));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(jobId);
+            activeBySession.remove(sessionId, jobId);
+            AnalyticsService.discardPackage(pkg);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "package job queue is full", e);
+        }
+        return job.toDto();
+    }
+
+    /** Синхронная обработка (POST /manifest, /package, /uploads/{id}/complete) — под той же блокировкой сессии. */
+    public <T> T runExclusive(String sessionId, Supplier<T> work) {
+        String owner = "sync-" + UUID.randomUUID();
+        claim(sessionId, owner);
+        try {
+            return work.get();
+        } finally {
+            activeBySession.remove(sessionId, owner);
+        }
+    }
+
+    private void claim(String sessionId, String owner) {
+        if (activeBySession.putIfAbsent(sessionId, owner) != null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "package processing already running for session: " + sessionId);
+        }
+    }
+
+    public PackageJobDto get(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Job not found: " + jobId);
+        return job.toDto();
+    }
+
+    private void run(Job job, AnalyticsService.SpooledPackage pkg) {
+        job.started();
+        try {
+            AnalyticsService.PackageSubmitResult r = analytics.processPackage(pkg, job::stage);
+            job.succeeded(r);
+        } catch (ResponseStatusException e) {
+            job.failed(e.getStatusCode().value(), e.getReason());
+        } catch (Exception e) {
+            job.failed(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+        } finally {
+            activeBySession.remove(job.sessionId, job.jobId);
+            retire(job.jobId);
+        }
+    }
+
+    private void retire(String jobId) {
+        finishedOrder.add(jobId);
+        while (finishedOrder.size() > retainedFinished) {
+            String old = finishedOrder.poll();
+            if (old != null) jobs.remove(old);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class Job {
+        final String jobId;
+        final String sessionId;
+        final Instant submittedAt = Instant.now();
+
+        private String state = "QUEUED";
+        private String sessionStatus;
+        private Instant startedAt;
+        private Instant finishedAt;
+        private Instant lastMark = submittedAt;
+        private String checksum;
+        private Integer photos;
+        private Map<String, List<String>> ambiguousFileKeys = Map.of();
+        private String duplicateOf;
+        private Integer errorStatus;
+        private String errorMessage;
+        private final List<PackageJobStageDto> stages = new ArrayList<>();
+
+        Job(String jobId, String sessionId) {
+            this.jobId = jobId;
+            this.sessionId = sessionId;
+        }
+
+        synchronized void spooled(String checksum) {
+            this.checksum = checksum;
+            stage("SPOOLED");
+        }
+
+        synchronized void started() {
+            state = "RUNNING";
+            startedAt = Instant.now();
+            // ожидание в очереди не относим к первому этапу обработки
+            lastMark = startedAt;
+        }
+
+        synchronized void stage(String status) {
+            Instant now = Instant.now();
+            PackageJobStageDto st = new PackageJobStageDto();
+            st.stage = status;
+            st.completedAt = now.toString();
+            st.durationMs = now.toEpochMilli() - lastMark.toEpochMilli();
+            stages.add(st);
+
+            lastMark = now;
+            if (!"SPOOLED".equals(status)) sessionStatus = status;
+        }
+
+        synchronized void succeeded(AnalyticsService.PackageSubmitResult r) {
+            this.photos = r.photos;
+            this.ambiguousFileKeys = r.ambiguousFileKeys;
+            this.duplicateOf = r.duplicateOf;
+            state = "SUCCEEDED";
+            finishedAt = Instant.now();
+        }
+
+        synchronized void failed(int status, String message) {
+            errorStatus = status;
+            errorMessage = message;
+            state = "FAILED";
+            finishedAt = Instant.now();
+        }
+
+        synchronized PackageJobDto toDto() {
+            PackageJobDto dto = new PackageJobDto();
+            dto.jobId = jobId;
+            dto.sessionId = sessionId;
+            dto.state = state;
+            dto.sessionStatus = sessionStatus;
+            dto.submittedAt = submittedAt.toString();
+            dto.startedAt = (startedAt != null) ? startedAt.toString() : null;
+            dto.finishedAt = (finishedAt != null) ? finishedAt.toString() : null;
+            dto.packageChecksum = checksum;
+            dto.photos = photos;
+            dto.ambiguousFileKeys.putAll(ambiguousFileKeys);
+            dto.duplicateOfSessionId = duplicateOf;
+            dto.errorStatus = errorStatus;
+            dto.errorMessage = errorMessage;
+            dto.stages.addAll(stages);
+            return dto;
+        }
+    }
+}
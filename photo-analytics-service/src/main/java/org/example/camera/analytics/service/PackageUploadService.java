@@ -0,0 +1,455 @@
+package org.example.camera.analytics.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.camera.common.dto.PackageJobDto;
+import org.example.camera.common.dto.PackageUploadDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Возобновляемая загрузка пакета: диапазоны байт (PUT с Content-Range) в любом порядке пишутся
+ * в разреженный файл на диске. SHA-256 считается по ходу: байты, пришедшие вплотную к уже
+ * посчитанному префиксу, идут в digest прямо из запроса, пришедшие раньше очереди — дочитываются
+ * с диска, когда префикс до них дорастёт. К завершению checksum готов, пакет отдаётся
+ * в обычную обработку без повторного чтения данных.
+ * Реестр загрузок — в памяти; загрузка без новых данных дольше expire-after удаляется.
+ * Тело запроса читается без блокировки загрузки: монитор берётся на каждый прочитанный блок
+ * только для записи в файл, интервалов и digest — статус и новые загрузки не ждут медленный PUT.
+ * Дочитывание с диска (может быть весь файл, если первым пришёл последний блок) идёт вне монитора:
+ * его ведёт один PUT (флаг hashing), hashed и checksum обновляются под монитором по итогу.
+ */
+@Service
+public class PackageUploadService {
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+    private static final int MAX_REPORTED_RANGES = 1000;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final AnalyticsService analytics;
+    private final PackageJobService jobs;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    // открытые загрузки: место резервируется до put в реестр, чтобы параллельные create не превысили max-open
+    private final AtomicInteger open = new AtomicInteger();
+
+    @Value("${app.package.storage-dir}")
+    private String packageStorageDir;
+
+    @Value("${app.package.upload.max-open}")
+    private int maxOpen;
+
+    @Value("${app.package.upload.expire-after-minutes}")
+    private long expireAfterMinutes;
+
+    public PackageUploadService(AnalyticsService analytics, PackageJobService jobs) {
+        this.analytics = analytics;
+        this.jobs = jobs;
+    }
+
+    public PackageUploadDto create(String sessionId, long size) {
+        if (size <= 0) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be > 0");
+        analytics.getSession(sessionId);
+
+        expireStale();
+        if (open.incrementAndGet() > maxOpen) {
+            open.decrementAndGet();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "too many open uploads");
+        }
+
+        Upload u = new Upload(UUID.randomUUID().toString(), sessionId, size);
+        try {
+            Files.createDirectories(uploadsDir());
+            u.file = uploadsDir().resolve(u.id + ".part");
+            // разреженный файл заявленного размера: диапазоны пишутся по своим смещениям
+            try (RandomAccessFile f = new RandomAccessFile(u.file.toFile(), "rw")) {
+                f.setLength(size);
+            }
+        } catch (IOException ex) {
+            open.decrementAndGet();
+            u.delete();
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "cannot create upload: " + ex.getMessage(), ex);
+        }
+        uploads.put(u.id, u);
+        return u.toDto(expiry());
+    }
+
+    public PackageUploadDto get(String uploadId) {
+        Upload u = find(uploadId);
+        synchronized (u) {
+            return u.toDto(expiry());
+        }
+    }
+
+    /** contentRange — "bytes first-last/total"; если тело оборвалось, полученная часть всё равно засчитывается. */
+    public PackageUploadDto write(String uploadId, String contentRange, InputStream body) {
+        Upload u = find(uploadId);
+        if (contentRange == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Content-Range header is required");
+
+        Matcher m = CONTENT_RANGE.matcher(contentRange.trim());
+        if (!m.matches()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid Content-Range: " + contentRange);
+
+        long first;
+        long last;
+        try {
+            first = Long.parseLong(m.group(1));
+            last = Long.parseLong(m.group(2));
+            if (!"*".equals(m.group(3)) && Long.parseLong(m.group(3)) != u.size) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Content-Range total differs from upload size " + u.size);
+            }
+        } catch (NumberFormatException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid Content-Range: " + contentRange, ex);
+        }
+        if (first > last || last >= u.size) {
+            throw new ResponseStatusException(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE,
+                    "range " + first + "-" + last + " outside upload of " + u.size + " bytes");
+        }
+
+        Path file;
+        synchronized (u) {
+            if (u.finalizing) throw new ResponseStatusException(HttpStatus.CONFLICT, "upload is being finalized: " + uploadId);
+            file = u.file;
+            u.writers++;
+        }
+        try {
+            u.write(file, first, last + 1, body);
+        } finally {
+            synchronized (u) {
+                u.writers--;
+                u.touched = Instant.now();
+            }
+        }
+        return get(uploadId);
+    }
+
+    public void cancel(String uploadId) {
+        Upload u = find(uploadId);
+        synchronized (u) {
+            if (u.finalizing) throw new ResponseStatusException(HttpStatus.CONFLICT, "upload is being finalized: " + uploadId);
+            remove(u);
+        }
+    }
+
+    /**
+     * Синхронное завершение — как POST /package (и так же 409, пока по сессии идёт другая обработка).
+     * При отказе обработки загрузка остаётся: завершение можно повторить без повторной передачи данных.
+     */
+    public AnalyticsService.PackageSubmitResult complete(String uploadId, String expectedSha256) {
+        Upload u = beginFinalize(uploadId, expectedSha256);
+        boolean done = false;
+        try {
+            AnalyticsService.PackageSubmitResult r = jobs.runExclusive(u.sessionId, () -> analytics.processPackage(
+                    analytics.adoptPackage(u.sessionId, u.linkForPackage(), u.checksum),
+                    AnalyticsService.StageListener.NONE));
+            done = true;
+            return r;
+        } finally {
+            endFinalize(u, done);
+        }
+    }
+
+    /** Асинхронное завершение: после постановки задачи загрузка закрывается, дальше — статус задачи. */
+    public PackageJobDto completeAsJob(String uploadId, String expectedSha256) {
+        Upload u = beginFinalize(uploadId, expectedSha256);
+        boolean done = false;
+        try {
+            PackageJobDto job = jobs.submit(u.sessionId, () -> analytics.adoptPackage(u.sessionId, u.linkForPackage(), u.checksum));
+            done = true;
+            return job;
+        } finally {
+            endFinalize(u, done);
+        }
+    }
+
+    private Upload beginFinalize(String uploadId, String expectedSha256) {
+        Upload u = find(uploadId);
+        synchronized (u) {
+            if (u.finalizing) throw new ResponseStatusException(HttpStatus.CONFLICT, "upload is being finalized: " + uploadId);
+            if (u.checksum == null) {
+                long missing = u.size - u.receivedBytes();
+                throw new ResponseStatusException(HttpStatus.CONFLICT, (missing > 0)
+                        ? "upload incomplete: " + missing + " bytes missing"
+                        : "upload checksum is not ready yet (still hashing; re-send any range if it stays so)");
+            }
+            if (expectedSha256 != null && !expectedSha256.isBlank() && !expectedSha256.trim().equalsIgnoreCase(u.checksum)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "sha256 mismatch: expected=" + expectedSha256.trim() + ", received=" + u.checksum);
+            }
+            u.finalizing = true;
+            return u;
+        }
+    }
+
+    private void endFinalize(Upload u, boolean done) {
+        synchronized (u) {
+            u.finalizing = false;
+            u.touched = Instant.now();
+            // файл ушёл в обработку целиком (без ссылки) — повторять завершение не из чего
+            if (done || u.file == null) remove(u);
+        }
+    }
+
+    private Upload find(String uploadId) {
+        Upload u = uploads.get(uploadId);
+        if (u == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found: " + uploadId);
+        return u;
+    }
+
+    // загрузки, в которые сейчас идёт PUT, не трогаем: их срок отсчитывается от конца записи
+    private void expireStale() {
+        Instant cutoff = Instant.now().minus(expiry());
+        for (Upload u : uploads.values()) {
+            synchronized (u) {
+                if (!u.finalizing && u.writers == 0 && u.touched.isBefore(cutoff)) remove(u);
+            }
+        }
+    }
+
+    private void remove(Upload u) {
+        if (uploads.remove(u.id, u)) {
+            open.decrementAndGet();
+            u.delete();
+        }
+    }
+
+    private Duration expiry() {
+        return Duration.ofMinutes(expireAfterMinutes);
+    }
+
+    private Path uploadsDir() {
+        return Path.of(packageStorageDir).toAbsolutePath().normalize().resolve("uploads");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        uploads.values().forEach(Upload::delete);
+        uploads.clear();
+    }
+
+    private final class Upload {
+        final String id;
+        final String sessionId;
+        final long size;
+        final Instant createdAt = Instant.now();
+        Instant touched = createdAt;
+        Path file;
+        boolean finalizing;
+        int writers; // PUT, читающие тело прямо сейчас
+        int links;
+
+        // полученные интервалы [start, end), слитые; префикс [0, hashed) уже в digest
+        private final TreeMap<Long, Long> received = new TreeMap<>();
+        private final MessageDigest digest = AnalyticsService.newSha256();
+        private long hashed;
+        private boolean hashing;  // один PUT дочитывает [hashed, hashTarget) с диска вне монитора
+        private long hashTarget;
+        String checksum; // когда hashed == size
+
+        Upload(String id, String sessionId, long size) {
+            this.id = id;
+            this.sessionId = sessionId;
+            this.size = size;
+        }
+
+        // вызывается без монитора: ждём сеть вне блокировки, каждый прочитанный блок учитывается под монитором
+        void write(Path target, long start, long end, InputStream body) {
+            long pos = start;
+            try (FileChannel ch = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                byte[] buf = new byte[BUFFER_BYTES];
+                while (pos < end) {
+                    int n = body.read(buf, 0, (int) Math.min(buf.length, end - pos));
+                    if (n < 0) break;
+                    boolean catchUp;
+                    synchronized (this) {
+                        catchUp = accept(ch, buf, n, pos);
+                    }
+                    if (catchUp) catchUp(ch);
+                    pos += n;
+                }
+            } catch (IOException ex) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "upload interrupted: received " + start + "-" + (pos - 1) + ": " + ex.getMessage(), ex);
+            }
+
+            try {
+                if (pos < end) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                            "body shorter than Content-Range: received " + start + "-" + (pos - 1));
+                }
+                if (body.read() != -1) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "body longer than Content-Range");
+                }
+            } catch (IOException ignored) {
+                // заявленный диапазон уже получен полностью
+            }
+        }
+
+        /**
+         * Блок [pos, pos+n) — в файл; вплотную к посчитанному префиксу — сразу в digest, иначе дочитается с диска.
+         * true — вызывающий стал дочитывающим и должен вызвать catchUp вне монитора.
+         */
+        private boolean accept(FileChannel ch, byte[] buf, int n, long pos) throws IOException {
+            touched = Instant.now();
+            // байты до hashed (и до hashTarget, пока их дочитывают) уже учтены — повторная передача их не меняет
+            long frozen = hashing ? hashTarget : hashed;
+            int off = (int) Math.max(0, Math.min(n, frozen - pos));
+            if (off < n) {
+                ch.write(ByteBuffer.wrap(buf, off, n - off), pos + off);
+                if (!hashing && pos + off == hashed) {
+                    digest.update(buf, off, n - off);
+                    hashed += n - off;
+                }
+            }
+            markReceived(pos, pos + n);
+            if (hashing) return false; // дочитывающий сам увидит новый префикс
+            if (startCatchUp()) return true;
+            if (hashed == size && checksum == null) checksum = AnalyticsService.toHex(digest.digest());
+            return false;
+        }
+
+        // префикс от 0 дорос до интервалов, пришедших раньше очереди, — их надо дочитать в digest с диска
+        private boolean startCatchUp() {
+            Map.Entry<Long, Long> prefix = received.firstEntry();
+            if (prefix == null || prefix.getKey() != 0 || prefix.getValue() <= hashed) return false;
+            hashing = true;
+            hashTarget = prefix.getValue();
+            return true;
+        }
+
+        private void markReceived(long start, long end) {
+            if (end <= start) return;
+            Map.Entry<Long, Long> before = received.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            Map.Entry<Long, Long> next = received.ceilingEntry(start);
+            while (next != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                received.remove(next.getKey());
+                next = received.ceilingEntry(start);
+            }
+            received.put(start, end);
+        }
+
+        /**
+         * Вне монитора: [hashed, hashTarget) с диска в digest. Пока hashing, digest трогает только этот поток,
+         * а байты ниже hashTarget не перезаписываются; пришедшее за это время продолжает префикс — следующий круг.
+         */
+        private void catchUp(FileChannel ch) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+            boolean finished = false;
+            try {
+                long from;
+                long to;
+                synchronized (this) {
+                    from = hashed;
+                    to = hashTarget;
+                }
+                while (true) {
+                    while (from < to) {
+                        buf.clear().limit((int) Math.min(buf.capacity(), to - from));
+                        int n = ch.read(buf, from);
+                        if (n < 0) throw new IOException("upload file truncated at " + from);
+                        digest.update(buf.array(), 0, n);
+                        from += n;
+                    }
+                    synchronized (this) {
+                        hashed = to;
+                        hashing = false;
+                        if (!startCatchUp()) {
+                            if (hashed == size && checksum == null) checksum = AnalyticsService.toHex(digest.digest());
+                            finished = true;
+                            return;
+                        }
+                        to = hashTarget;
+                    }
+                }
+            } catch (IOException ex) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "cannot hash upload: " + ex.getMessage(), ex);
+            } finally {
+                if (!finished) {
+                    // digest уже получил часть диапазона — считаем заново с нуля при следующем блоке
+                    synchronized (this) {
+                        digest.reset();
+                        hashed = 0;
+                        hashing = false;
+                    }
+                }
+            }
+        }
+
+        long receivedBytes() {
+            long total = 0;
+            for (Map.Entry<Long, Long> e : received.entrySet()) total += e.getValue() - e.getKey();
+            return total;
+        }
+
+        /**
+         * Пакету — своя жёсткая ссылка на файл: обработка забирает её себе, а загрузка остаётся
+         * целой до успешного завершения. Если ФС не умеет ссылки — отдаём сам файл.
+         */
+        Path linkForPackage() {
+            Path link = file.resolveSibling(id + "-" + (++links) + ".zip");
+            try {
+                return Files.createLink(link, file);
+            } catch (IOException | UnsupportedOperationException ex) {
+                Path own = file;
+                file = null;
+                return own;
+            }
+        }
+
+        void delete() {
+            if (file == null) return;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // файл загрузки не критичен
+            }
+        }
+
+        PackageUploadDto toDto(Duration expiry) {
+            PackageUploadDto dto = new PackageUploadDto();
+            dto.uploadId = id;
+            dto.sessionId = sessionId;
+            dto.size = size;
+            dto.receivedBytes = receivedBytes();
+            dto.complete = checksum != null;
+            dto.sha256 = checksum;
+            dto.createdAt = createdAt.toString();
+            dto.expiresAt = touched.plus(expiry).toString();
+
+            long from = 0;
+            for (Map.Entry<Long, Long> e : received.entrySet()) {
+                if (e.getKey() > from) addRange(dto, from, e.getKey());
+                from = e.getValue();
+            }
+            if (from < size) addRange(dto, from, size);
+            return dto;
+        }
+
+        private void addRange(PackageUploadDto dto, long start, long end) {
+            if (dto.missingRanges.size() < MAX_REPORTED_RANGES) dto.missingRanges.add(start + "-" + (end - 1));
+        }
+    }
+}
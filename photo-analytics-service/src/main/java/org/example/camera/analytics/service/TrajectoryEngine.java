@@ -0,0 +1,155 @@
+package org.example.camera.analytics.service;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Расчёт расстояния, скорости и confidence по треку на примитивных массивах (struct-of-arrays).
+ * Точки копятся блоком до capacity, compute() заполняет массивы результатов; последняя точка блока
+ * остаётся «предыдущей» для следующего, поэтому результат не зависит от размера блока.
+ * Косинус широты считается один раз на точку; разности координат — в градусах, как в исходной формуле,
+ * чтобы значения совпадали побитово.
+ * Каждой точке нужна только предыдущая, и она уже лежит в массивах, — поэтому блок можно считать
+ * сегментами параллельно (compute(pool, segmentSize)) с тем же результатом.
+ */
+final class TrajectoryEngine {
+
+    private static final double EARTH_RADIUS_M = 6371000.0;
+
+    // слот 0 — предыдущая точка (хвост прошлого блока), точки блока — 1..size
+    private final double[] latDeg;
+    private final double[] lonDeg;
+    private final double[] cosLat;
+    private final long[] epochMs;
+    private boolean hasPrev;
+    private int size;
+
+    private final double[] distance;
+    private final double[] speed;
+    private final double[] confidence;
+
+    TrajectoryEngine(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        latDeg = new double[capacity + 1];
+        lonDeg = new double[capacity + 1];
+        cosLat = new double[capacity + 1];
+        epochMs = new long[capacity + 1];
+        distance = new double[capacity];
+        speed = new double[capacity];
+        confidence = new double[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == distance.length;
+    }
+
+    /** Точка уже проверена: fileKey непустой, takenAt разобран. */
+    void add(long takenAtMs, double latitude, double longitude) {
+        int i = ++size;
+        latDeg[i] = latitude;
+        lonDeg[i] = longitude;
+        cosLat[i] = Math.cos(Math.toRadians(latitude));
+        epochMs[i] = takenAtMs;
+    }
+
+    /** Считает результаты для точек блока; читать через distance/speed/confidence до reset(). */
+    void compute() {
+        computeRange(1, size + 1);
+    }
+
+    /** То же, что compute(), сегментами не длиннее segmentSize на пуле; начало сегмента берёт конец предыдущего. */
+    void compute(ForkJoinPool pool, int segmentSize) {
+        if (size <= segmentSize) {
+            computeRange(1, size + 1);
+        } else {
+            pool.invoke(new Segment(1, size + 1, segmentSize));
+        }
+    }
+
+    // точки [from, to) — пишутся только свои ячейки результатов, поэтому диапазоны независимы
+    private void computeRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            double d = 0.0;
+            double v = 0.0;
+            if (i > 1 || hasPrev) {
+                long dtMillis = epochMs[i] - epochMs[i - 1];
+                if (dtMillis > 0) {
+                    d = haversineMeters(i - 1, i);
+                    double speedMps = d / (dtMillis / 1000.0);
+                    v = speedMps * 3.6;
+                }
+            }
+            distance[i - 1] = d;
+            speed[i - 1] = v;
+
+            // fileKey и takenAt проверены при добавлении — остаётся только диапазон координат
+            int ok = isValidLatLon(latDeg[i], lonDeg[i]) ? 3 : 2;
+            confidence[i - 1] = (double) ok / 3.0;
+        }
+    }
+
+    double distance(int i) {
+        return distance[i];
+    }
+
+    double speed(int i) {
+        return speed[i];
+    }
+
+    double confidence(int i) {
+        return confidence[i];
+    }
+
+    /** Начать следующий блок: последняя точка становится предыдущей. */
+    void reset() {
+        if (size == 0) return;
+        latDeg[0] = latDeg[size];
+        lonDeg[0] = lonDeg[size];
+        cosLat[0] = cosLat[size];
+        epochMs[0] = epochMs[size];
+        hasPrev = true;
+        size = 0;
+    }
+
+    private final class Segment extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int segmentSize;
+
+        Segment(int from, int to, int segmentSize) {
+            this.from = from;
+            this.to = to;
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= segmentSize) {
+                computeRange(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Segment(from, mid, segmentSize), new Segment(mid, to, segmentSize));
+        }
+    }
+
+    private double haversineMeters(int p, int c) {
+        double dPhi = Math.toRadians(latDeg[c] - latDeg[p]);
+        double dLambda = Math.toRadians(lonDeg[c] - lonDeg[p]);
+
+        double sinPhi = Math.sin(dPhi / 2);
+        double sinLambda = Math.sin(dLambda / 2);
+        double a = sinPhi * sinPhi + cosLat[p] * cosLat[c] * sinLambda * sinLambda;
+
+        double arc = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS_M * arc;
+    }
+
+    static boolean isValidLatLon(double lat, double lon) {
+        return lat >= -90.0 && lat <= 90.0 && lon >= -180.0 && lon <= 180.0;
+    }
+}
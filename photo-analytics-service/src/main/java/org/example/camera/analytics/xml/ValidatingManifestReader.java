@@ -0,0 +1,224 @@
+package org.example.camera.analytics.xml;
+
+import org.example.camera.common.xml.XmlGrammarRegistry;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Один проход по manifest.xml: XSD (всегда) + DTD (если есть DOCTYPE) и сразу извлечение
+ * header и ManifestPhoto из провалидированных SAX-событий. Фото не накапливаются —
+ * каждое отдаётся в sink и сразу забывается.
+ *
+ * Приоритет ошибок как при раздельных проходах: сначала XSD (включая well-formedness),
+ * и только если по XSD документ валиден — первая ошибка DTD.
+ */
+public class ValidatingManifestReader {
+
+    public enum Grammar { XSD, DTD }
+
+    public static class ManifestPhoto {
+        public String fileKey;
+        public String takenAt;
+        public double latitude;
+        public double longitude;
+        public double altitude;
+    }
+
+    public static class ManifestHeader {
+        public String droneId;
+        public String operatorId;
+        public String startTime;
+        public String endTime;
+    }
+
+    /** Ошибка валидации с указанием грамматики и исходным SAXParseException (line/col). */
+    public static class ManifestValidationException extends RuntimeException {
+        private final Grammar grammar;
+        private final SAXParseException parseError;
+
+        ManifestValidationException(Grammar grammar, SAXParseException parseError) {
+            super(parseError.getMessage(), parseError);
+            this.grammar = grammar;
+            this.parseError = parseError;
+        }
+
+        public Grammar getGrammar() { return grammar; }
+        public int getLineNumber() { return parseError.getLineNumber(); }
+        public int getColumnNumber() { return parseError.getColumnNumber(); }
+    }
+
+    /**
+     * sink не должен бросать исключения: фото может прийти до ошибки валидации дальше по документу,
+     * поэтому решения по содержимому принимаются только после успешного возврата.
+     */
+    public ManifestHeader read(byte[] xml, boolean validateDtd,
+                                                  Consumer<ManifestPhoto> sink) throws IOException {
+        if (xml == null) {
+            throw new IllegalArgumentException("Manifest parse error: xml is null");
+        }
+
+        ExtractingHandler content = new ExtractingHandler(sink);
+        FirstDtdError dtdErrors = new FirstDtdError();
+        ErrorHandler xsdErrors = new ErrorHandler() {
+            @Override public void warning(SAXParseException e) { }
+            @Override public void error(SAXParseException e) throws SAXException { throw new Failure(Grammar.XSD, e); }
+            @Override public void fatalError(SAXParseException e) throws SAXException { throw new Failure(Grammar.XSD, e); }
+        };
+
+        try {
+            XmlGrammarRegistry.parse(XmlGrammarRegistry.Contract.MANIFEST, new InputSource(new ByteArrayInputStream(xml)),
+                    validateDtd, content, dtdErrors, xsdErrors);
+        } catch (Failure f) {
+            throw new ManifestValidationException(f.grammar, f.parseError);
+        } catch (SAXParseException e) {
+            throw new ManifestValidationException(Grammar.XSD, e);
+        } catch (SAXException e) {
+            if (e.getException() instanceof IllegalArgumentException iae) throw iae;
+            throw new IllegalArgumentException("Manifest parse error: " + e.getMessage(), e);
+        }
+
+        if (dtdErrors.first != null) {
+            throw new ManifestValidationException(Grammar.DTD, dtdErrors.first);
+        }
+        return content.header;
+    }
+
+    /**
+     * DOCTYPE ищем только в прологе (до корневого элемента), не декодируя весь документ.
+     */
+    public static boolean hasDoctype(byte[] xml) {
+        if (xml == null) return false;
+        int i = 0;
+        int n = xml.length;
+        while (i < n) {
+            if (xml[i] != '<') { i++; continue; }
+            if (startsWith(xml, i, "<?")) {
+                i = indexOf(xml, i + 2, "?>");
+            } else if (startsWith(xml, i, "<!--")) {
+                i = indexOf(xml, i + 4, "-->");
+            } else {
+                return startsWith(xml, i, "<!DOCTYPE");
+            }
+            if (i < 0) return false;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] b, int from, String s) {
+        if (from + s.length() > b.length) return false;
+        for (int k = 0; k < s.length(); k++) {
+            if (b[from + k] != s.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int from, String s) {
+        for (int i = from; i + s.length() <= b.length; i++) {
+            if (startsWith(b, i, s)) return i + s.length();
+        }
+        return -1;
+    }
+
+    // ошибки DTD не прерывают проход: XSD-ошибка дальше по документу важнее (как раньше)
+    private static class FirstDtdError implements ErrorHandler {
+        SAXParseException first;
+
+        @Override public void warning(SAXParseException e) { if (first == null) first = e; }
+        @Override public void error(SAXParseException e) { if (first == null) first = e; }
+        @Override public void fatalError(SAXParseException e) throws SAXException { throw e; }
+    }
+
+    private static class Failure extends SAXException {
+        final Grammar grammar;
+        final SAXParseException parseError;
+
+        Failure(Grammar grammar, SAXParseException parseError) {
+            super(parseError.getMessage());
+            this.grammar = grammar;
+            this.parseError = parseError;
+        }
+    }
+
+    private static class ExtractingHandler extends DefaultHandler {
+        final ManifestHeader header = new ManifestHeader();
+        private final Consumer<ManifestPhoto> sink;
+        private final StringBuilder text = new StringBuilder(64);
+        private ManifestPhoto current;
+        private Locator locator;
+
+        ExtractingHandler(Consumer<ManifestPhoto> sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            text.setLength(0);
+            if ("photo".equals(localName)) current = new ManifestPhoto();
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if ("photo".equals(localName)) {
+                if (current != null && sink != null) sink.accept(current);
+                current = null;
+                text.setLength(0);
+                return;
+            }
+
+            String value = text.toString().trim();
+            text.setLength(0);
+            if (value.isEmpty()) return;
+
+            switch (localName) {
+                case "droneId": header.droneId = value; break;
+                case "operatorId": header.operatorId = value; break;
+                case "startTime": header.startTime = value; break;
+                case "endTime": header.endTime = value; break;
+
+                case "fileKey":
+                    if (current != null) current.fileKey = value;
+                    break;
+                case "takenAt":
+                    if (current != null) current.takenAt = value;
+                    break;
+                case "latitude":
+                    if (current != null) current.latitude = parseDouble(value, "latitude");
+                    break;
+                case "longitude":
+                    if (current != null) current.longitude = parseDouble(value, "longitude");
+                    break;
+                case "altitude":
+                    if (current != null) current.altitude = parseDouble(value, "altitude");
+                    break;
+            }
+        }
+
+        private double parseDouble(String value, String field) throws SAXException {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                String at = (locator == null) ? "" : (" at line=" + locator.getLineNumber() + ", col=" + locator.getColumnNumber());
+                throw new SAXException(new IllegalArgumentException("Invalid number for '" + field + "': '" + value + "'" + at, e));
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.camera.analytics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Нагрузочный прогон синхронной цепочки analytics → catalog → penalty (не тест — surefire его не запускает):
+ * N одновременных загрузок пакета, каждая в свою сессию. Сравнение режимов — два прогона против сервисов,
+ * запущенных обычно и с --spring.profiles.active=virtual-threads (сборка -Pjava21).
+ * Запуск после mvn test-compile:
+ *   java -cp photo-analytics-service/target/test-classes \
+ *        org.example.camera.analytics.PackageUploadLoadBenchmark <zip> [concurrency=1000] [uploads=concurrency] [baseUrl]
+ * В каждую копию пакета добавляется своя запись — иначе повторы одного checksum уйдут в дедупликацию.
+ */
+public class PackageUploadLoadBenchmark {
+
+    private static final Pattern DRONE = Pattern.compile("<droneId>\\s*([^<]+?)\\s*</droneId>");
+    private static final Pattern OPERATOR = Pattern.compile("<operatorId>\\s*([^<]+?)\\s*</operatorId>");
+    private static final String BOUNDARY = "----package-load-boundary";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: PackageUploadLoadBenchmark <zip> [concurrency] [uploads] [baseUrl]");
+            System.exit(2);
+        }
+        byte[] zip = Files.readAllBytes(Path.of(args[0]));
+        int concurrency = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int uploads = (args.length > 2) ? Integer.parseInt(args[2]) : concurrency;
+        String baseUrl = (args.length > 3) ? args[3] : "http://localhost:8081";
+
+        String manifest = readManifest(zip);
+        String droneId = find(DRONE, manifest);
+        String operatorId = find(OPERATOR, manifest);
+
+        List<byte[]> packages = new ArrayList<>(uploads);
+        for (int i = 0; i < uploads; i++) packages.add(withMarker(zip, i));
+
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+
+        long[] latencyMs = new long[uploads];
+        Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        List<Future<?>> futures = new ArrayList<>(uploads);
+        for (int i = 0; i < uploads; i++) {
+            int n = i;
+            futures.add(clients.submit(() -> {
+                start.await();
+                long t0 = System.nanoTime();
+                String outcome;
+                try {
+                    outcome = upload(http, baseUrl, droneId, operatorId, packages.get(n));
+                } catch (IOException e) {
+                    outcome = e.getClass().getSimpleName();
+                }
+                latencyMs[n] = (System.nanoTime() - t0) / 1_000_000;
+                outcomes.computeIfAbsent(outcome, k -> new AtomicLong()).incrementAndGet();
+                return null;
+            }));
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) f.get();
+        long wallMs = Math.max(1, (System.nanoTime() - t0) / 1_000_000);
+        clients.shutdown();
+
+        Arrays.sort(latencyMs);
+        System.out.printf("uploads=%d concurrency=%d wall=%d ms throughput=%.1f uploads/s%n",
+                uploads, concurrency, wallMs, uploads * 1000.0 / wallMs);
+        System.out.printf("latency ms: p50=%d p95=%d p99=%d max=%d%n",
+                pct(latencyMs, 50), pct(latencyMs, 95), pct(latencyMs, 99), latencyMs[uploads - 1]);
+        System.out.println("outcomes: " + new TreeMap<>(outcomes));
+    }
+
+    // сессия + синхронная загрузка пакета; итог — HTTP-статус загрузки
+    private static String upload(HttpClient http, String baseUrl, String droneId, String operatorId, byte[] pkg)
+            throws IOException, InterruptedException {
+        HttpResponse<String> session = http.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/analytics/sessions?droneId="
+                        + droneId + "&operatorId=" + operatorId))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        if (session.statusCode() != 200) return "session " + session.statusCode();
+        Matcher m = Pattern.compile("\"sessionId\"\\s*:\\s*\"([^\"]+)\"").matcher(session.body());
+        if (!m.find()) return "session without id";
+
+        HttpResponse<Void> resp = http.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/analytics/sessions/" + m.group(1) + "/package"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(multipart(pkg)))
+                .build(), HttpResponse.BodyHandlers.discarding());
+        return "package " + resp.statusCode();
+    }
+
+    private static byte[] multipart(byte[] pkg) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pkg.length + 256);
+        out.writeBytes(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"package\"; filename=\"package.zip\"\r\n"
+                + "Content-Type: application/zip\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(pkg);
+        out.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    private static byte[] withMarker(byte[] zip, int n) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(zip.length + 256);
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip));
+             ZipOutputStream z = new ZipOutputStream(out)) {
+            for (ZipEntry e; (e = in.getNextEntry()) != null; ) {
+                z.putNextEntry(new ZipEntry(e.getName()));
+                in.transferTo(z);
+                z.closeEntry();
+            }
+            z.putNextEntry(new ZipEntry("load-" + n + ".txt"));
+            z.write(Integer.toString(n).getBytes(StandardCharsets.US_ASCII));
+            z.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    private static String readManifest(byte[] zip) throws IOException {
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry e; (e = in.getNextEntry()) != null; ) {
+                if (e.getName().endsWith("manifest.xml")) return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        throw new IllegalArgumentException("manifest.xml not found in package");
+    }
+
+    private static String find(Pattern p, String xml) {
+        Matcher m = p.matcher(xml);
+        if (!m.find()) throw new IllegalArgumentException("manifest has no " + p.pattern());
+        return m.group(1);
+    }
+
+    private static long pct(long[] sorted, int p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
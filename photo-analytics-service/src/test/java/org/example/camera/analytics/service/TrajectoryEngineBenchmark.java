@@ -0,0 +1,80 @@
+package org.example.camera.analytics.service;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Замер масштабирования параллельного расчёта трека (не тест — surefire его не запускает).
+ * Запуск после mvn test-compile:
+ *   java -cp photo-analytics-service/target/test-classes:photo-analytics-service/target/classes \
+ *        org.example.camera.analytics.service.TrajectoryEngineBenchmark [points] [segmentSize]
+ * Для каждого числа потоков 1, 2, 4 … availableProcessors печатает лучшее время compute и ускорение
+ * относительно последовательного compute(); результаты сверяются с последовательными побитово.
+ */
+public class TrajectoryEngineBenchmark {
+
+    private static final int ROUNDS = 15;
+
+    public static void main(String[] args) {
+        int points = (args.length > 0) ? Integer.parseInt(args[0]) : 2_000_000;
+        int segmentSize = (args.length > 1) ? Integer.parseInt(args[1]) : 4096;
+
+        TrajectoryEngine engine = new TrajectoryEngine(points);
+        Random rnd = new Random(1);
+        long t = 1_700_000_000_000L;
+        double lat = 55.75;
+        double lon = 37.62;
+        for (int i = 0; i < points; i++) {
+            t += 1000 + rnd.nextInt(4000);
+            lat += rnd.nextGaussian() * 1e-4;
+            lon += rnd.nextGaussian() * 1e-4;
+            engine.add(t, lat, lon);
+        }
+
+        double[] expected = new double[points * 3];
+        long sequential = best(() -> engine.compute());
+        snapshot(engine, points, expected);
+        System.out.printf("points=%d segment=%d cores=%d%n", points, segmentSize, Runtime.getRuntime().availableProcessors());
+        System.out.printf("sequential     %8.2f ms%n", sequential / 1e6);
+
+        double[] actual = new double[points * 3];
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                long parallel = best(() -> engine.compute(pool, segmentSize));
+                snapshot(engine, points, actual);
+                System.out.printf("threads=%-3d    %8.2f ms  x%.2f  %s%n", threads, parallel / 1e6,
+                        (double) sequential / parallel, sameBits(expected, actual) ? "identical" : "MISMATCH");
+            } finally {
+                pool.shutdown();
+            }
+            if (threads == maxThreads) break;
+        }
+    }
+
+    private static long best(Runnable r) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            r.run();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        return best;
+    }
+
+    private static void snapshot(TrajectoryEngine e, int n, double[] out) {
+        for (int i = 0; i < n; i++) {
+            out[3 * i] = e.distance(i);
+            out[3 * i + 1] = e.speed(i);
+            out[3 * i + 2] = e.confidence(i);
+        }
+    }
+
+    private static boolean sameBits(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Double.doubleToRawLongBits(a[i]) != Double.doubleToRawLongBits(b[i])) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+package org.example.camera.analytics.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * TrajectoryEngine против исходной формулы (buildAnalysisResults + haversineMeters до перехода на массивы):
+ * distance, speed и confidence должны совпадать побитово при любых границах блоков;
+ * параллельный compute(pool, segmentSize) — побитово с последовательным compute().
+ */
+class TrajectoryEngineTest {
+
+    @Test
+    void matchesBaselineAcrossRandomBlockBoundaries() {
+        SplittableRandom rnd = new SplittableRandom(20260213);
+        for (int round = 0; round < 50; round++) {
+            Track t = Track.random(rnd, 1 + rnd.nextInt(3000));
+            int capacity = 1 + rnd.nextInt(700);
+            assertSameBits(t.baseline(), computeInBlocks(t, capacity, rnd, TrajectoryEngine::compute), "round=" + round + " capacity=" + capacity);
+        }
+    }
+
+    @Test
+    void outOfRangeCoordinatesAndNonPositiveDt() {
+        Track t = new Track(new long[]{
+                1_000, 2_000, 2_000, 1_500, 3_000, 4_000, 5_000, 6_000, 7_000, 7_001
+        }, new double[]{
+                55.75, 55.76, 91.0, -90.0, -90.5, 89.9, Double.NaN, 0.0, 90.0, 55.0
+        }, new double[]{
+                37.62, 37.63, 37.64, 180.0, 181.0, -180.5, 37.0, Double.NaN, -180.0, 37.0
+        });
+        double[][] expected = t.baseline();
+        assertSameBits(expected, computeInBlocks(t, t.size(), null, TrajectoryEngine::compute), "one block");
+        assertSameBits(expected, computeInBlocks(t, 1, null, TrajectoryEngine::compute), "block of 1");
+        assertSameBits(expected, computeInBlocks(t, 3, null, TrajectoryEngine::compute), "block of 3");
+
+        // dt = 0 и dt < 0 — ни расстояния, ни скорости; вне диапазона — 2/3
+        assertEquals(0.0, expected[0][2]);
+        assertEquals(0.0, expected[0][3]);
+        assertEquals(2.0 / 3.0, expected[2][2]);
+    }
+
+    @Test
+    void firstPointOfTrackHasNoPrevious() {
+        Track t = new Track(new long[]{1_000}, new double[]{55.75}, new double[]{37.62});
+        double[][] r = computeInBlocks(t, 4, null, TrajectoryEngine::compute);
+        assertEquals(0.0, r[0][0]);
+        assertEquals(0.0, r[1][0]);
+        assertEquals(1.0, r[2][0]);
+    }
+
+    // сегменты, не кратные блоку; второй и следующие блоки начинаются с точки предыдущего (reset)
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 7, 100, 1000, 4999, 5003, 10_000})
+    void parallelMatchesSequential(int segmentSize) {
+        Track t = Track.random(new SplittableRandom(segmentSize), 12_345);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Consumer<TrajectoryEngine> parallel = e -> e.compute(pool, segmentSize);
+            String context = "segment=" + segmentSize;
+            assertSameBits(computeInBlocks(t, 5003, null, TrajectoryEngine::compute),
+                    computeInBlocks(t, 5003, null, parallel), context + " blocks of 5003");
+            // случайные границы блоков — те же при одном seed
+            assertSameBits(computeInBlocks(t, 3000, new SplittableRandom(7), TrajectoryEngine::compute),
+                    computeInBlocks(t, 3000, new SplittableRandom(7), parallel), context + " random blocks");
+            assertSameBits(t.baseline(), computeInBlocks(t, t.size(), null, parallel), context + " one block");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Блоки случайной длины 1..capacity (rnd == null — полные), между блоками reset(), как в AnalyticsService. */
+    static double[][] computeInBlocks(Track t, int capacity, SplittableRandom rnd, Consumer<TrajectoryEngine> compute) {
+        TrajectoryEngine engine = new TrajectoryEngine(capacity);
+        double[][] out = new double[3][t.size()];
+        int done = 0;
+        while (done < t.size()) {
+            int block = Math.min(t.size() - done, (rnd == null) ? capacity : 1 + rnd.nextInt(capacity));
+            for (int i = 0; i < block; i++) {
+                engine.add(t.epochMs[done + i], t.lat[done + i], t.lon[done + i]);
+            }
+            compute.accept(engine);
+            copy(engine, out, done);
+            engine.reset();
+            done += block;
+        }
+        return out;
+    }
+
+    static void copy(TrajectoryEngine engine, double[][] out, int offset) {
+        for (int i = 0; i < engine.size(); i++) {
+            out[0][offset + i] = engine.distance(i);
+            out[1][offset + i] = engine.speed(i);
+            out[2][offset + i] = engine.confidence(i);
+        }
+    }
+
+    static void assertSameBits(double[][] expected, double[][] actual, String context) {
+        String[] names = {"distance", "speed", "confidence"};
+        for (int k = 0; k < 3; k++) {
+            for (int i = 0; i < expected[k].length; i++) {
+                if (Double.doubleToRawLongBits(expected[k][i]) != Double.doubleToRawLongBits(actual[k][i])) {
+                    fail(context + ": " + names[k] + "[" + i + "] " + expected[k][i] + " != " + actual[k][i]);
+                }
+            }
+        }
+    }
+
+    static final class Track {
+        final long[] epochMs;
+        final double[] lat;
+        final double[] lon;
+
+        Track(long[] epochMs, double[] lat, double[] lon) {
+            this.epochMs = epochMs;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        int size() {
+            return epochMs.length;
+        }
+
+        // шаг по времени иногда 0 или назад, координаты иногда за пределами диапазона
+        static Track random(SplittableRandom rnd, int n) {
+            Track t = new Track(new long[n], new double[n], new double[n]);
+            long ms = 1_700_000_000_000L;
+            double la = -89 + rnd.nextDouble() * 178;
+            double lo = -179 + rnd.nextDouble() * 358;
+            for (int i = 0; i < n; i++) {
+                int kind = rnd.nextInt(20);
+                ms += (kind == 0) ? 0 : (kind == 1) ? -rnd.nextInt(5000) : 1 + rnd.nextInt(10_000);
+                la += rnd.nextGaussian() * 1e-3;
+                lo += rnd.nextGaussian() * 1e-3;
+                t.epochMs[i] = ms;
+                t.lat[i] = (kind == 2) ? la + 180 : (kind == 3) ? -90.0 - rnd.nextDouble() : la;
+                t.lon[i] = (kind == 4) ? lo - 360 : lo;
+            }
+            return t;
+        }
+
+        /** Исходный расчёт: цикл buildAnalysisResults и haversineMeters без изменений (время уже разобрано). */
+        double[][] baseline() {
+            double[][] out = new double[3][size()];
+            for (int i = 0; i < size(); i++) {
+                double distanceMeters = 0.0;
+                double speedKmh = 0.0;
+                if (i > 0) {
+                    long dtMillis = epochMs[i] - epochMs[i - 1];
+                    if (dtMillis > 0) {
+                        distanceMeters = haversineMeters(lat[i - 1], lon[i - 1], lat[i], lon[i]);
+                        double speedMps = distanceMeters / (dtMillis / 1000.0);
+                        speedKmh = speedMps * 3.6;
+                    }
+                }
+                int ok = 2; // fileKey и takenAt
+                int total = 3;
+                if (lat[i] >= -90.0 && lat[i] <= 90.0 && lon[i] >= -180.0 && lon[i] <= 180.0) ok++;
+
+                out[0][i] = distanceMeters;
+                out[1][i] = speedKmh;
+                out[2][i] = (double) ok / (double) total;
+            }
+            return out;
+        }
+
+        private static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+            final double R = 6371000.0;
+            double phi1 = Math.toRadians(lat1);
+            double phi2 = Math.toRadians(lat2);
+            double dPhi = Math.toRadians(lat2 - lat1);
+            double dLambda = Math.toRadians(lon2 - lon1);
+
+            double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2)
+                    + Math.cos(phi1) * Math.cos(phi2) * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+
+            double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+            return R * c;
+        }
+    }
+}